@@ -1,6 +1,10 @@
 import React, { useState, useEffect } from 'react';
 import { files } from './api';
 
+const PREVIEW_TYPES = ['jpg', 'jpeg', 'png', 'gif', 'bmp'];
+const PREVIEW_SIZE = 1024;
+const PAGE_LINES = 500;
+
 function FileViewer({ file, onClose }) {
   const [content, setContent] = useState(null);
   const [loading, setLoading] = useState(true);
@@ -11,18 +15,24 @@ function FileViewer({ file, onClose }) {
 
   const loadFileContent = async () => {
     try {
-      const response = await files.download(file.fileId);
+      if (PREVIEW_TYPES.includes(file.type)) {
+        // The viewer is at most 800px wide, so a downscaled rendition is all it needs.
+        const preview = await files.preview(file.fileId, PREVIEW_SIZE, PREVIEW_SIZE, file.contentHash);
+        setContent({ type: 'image', data: URL.createObjectURL(preview) });
+        setLoading(false);
+        return;
+      }
 
       if (file.type === 'kt') {
-        const text = await response.text();
-        setContent({ type: 'text', data: text });
-      } else if (file.type === 'jpg' || file.type === 'jpeg') {
-        const url = URL.createObjectURL(response);
-        setContent({ type: 'image', data: url });
-      } else {
-        setContent({ type: 'unsupported', data: response });
+        const page = await files.lines(file.fileId, 0, PAGE_LINES);
+        setContent({ type: 'text', data: page.lines, nextLine: page.nextLine, endOfFile: page.endOfFile });
+        setLoading(false);
+        return;
       }
 
+      const response = await files.download(file.fileId);
+      setContent({ type: 'unsupported', data: response });
+
       setLoading(false);
     } catch (err) {
       console.error('Failed to load file content', err);
@@ -30,10 +40,24 @@ function FileViewer({ file, onClose }) {
     }
   };
 
-  const handleDownload = () => {
+  const loadMoreLines = async () => {
+    try {
+      const page = await files.lines(file.fileId, content.nextLine, PAGE_LINES);
+      setContent({
+        type: 'text',
+        data: content.data.concat(page.lines),
+        nextLine: page.nextLine,
+        endOfFile: page.endOfFile
+      });
+    } catch (err) {
+      console.error('Failed to load more lines', err);
+    }
+  };
+
+  const handleDownload = async () => {
     if (content && content.data) {
       const url = content.type === 'image'
-        ? content.data
+        ? URL.createObjectURL(await files.download(file.fileId))
         : URL.createObjectURL(content.data);
       const link = document.createElement('a');
       link.href = url;
@@ -95,10 +119,27 @@ function FileViewer({ file, onClose }) {
             maxHeight: '500px',
             fontFamily: 'monospace'
           }}>
-            {content.data}
+            {content.data.join('\n')}
           </pre>
         )}
 
+        {!loading && content && content.type === 'text' && !content.endOfFile && (
+          <button
+            onClick={loadMoreLines}
+            style={{
+              marginTop: '10px',
+              padding: '5px 10px',
+              background: '#007bff',
+              color: 'white',
+              border: 'none',
+              cursor: 'pointer',
+              borderRadius: '3px'
+            }}
+          >
+            Load more
+          </button>
+        )}
+
         {!loading && content && content.type === 'image' && (
           <img
             src={content.data}
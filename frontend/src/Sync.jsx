@@ -1,5 +1,7 @@
 import React, { useState } from 'react';
 import { files } from './api';
+import { MANIFEST_TYPE, encodeManifest, decodeManifest } from './manifest';
+import { SYNC_OPS_TYPE, buildUploadStream, parseResults } from './syncOps';
 
 const isElectron = () => {
   return typeof window !== 'undefined' && window.electronAPI && window.electronAPI.isElectron;
@@ -34,16 +36,16 @@ function Sync({ onClose, onSyncComplete }) {
       const response = await fetch('http://localhost:8081/api/sync/compare', {
         method: 'POST',
         headers: {
-          'Content-Type': 'application/json',
+          'Content-Type': MANIFEST_TYPE,
           'Authorization': `Bearer ${localStorage.getItem('token')}`
         },
-        body: JSON.stringify({ localFiles: fileNames })
+        body: encodeManifest([...fileNames].sort())
       });
 
       if (!response.ok) throw new Error('Failed to compare files');
 
-      const result = await response.json();
-      setSyncResult(result);
+      const [toUpload, toDownload] = decodeManifest(await response.arrayBuffer(), 2);
+      setSyncResult({ toUpload, toDownload });
     } catch (err) {
       setError('Failed to analyze sync status');
     }
@@ -59,18 +61,32 @@ function Sync({ onClose, onSyncComplete }) {
       let uploadedCount = 0;
       let skippedCount = 0;
 
-      for (const fileName of syncResult.toUpload) {
-        const originalFile = localFiles.find(f => {
-          const name = (f.webkitRelativePath || f.name).split('/').pop();
-          return name === fileName;
+      const localByName = new Map(
+        localFiles.map(f => [(f.webkitRelativePath || f.name).split('/').pop(), f])
+      );
+      const uploads = syncResult.toUpload
+        .filter(name => localByName.has(name))
+        .map(name => ({ name, file: localByName.get(name) }));
+
+      if (uploads.length > 0) {
+        const response = await fetch('http://localhost:8081/api/sync/apply', {
+          method: 'POST',
+          headers: {
+            'Content-Type': SYNC_OPS_TYPE,
+            'Authorization': `Bearer ${localStorage.getItem('token')}`
+          },
+          body: buildUploadStream(uploads)
         });
 
-        if (originalFile) {
-          try {
-            const cleanFile = new File([originalFile], fileName, { type: originalFile.type });
-            await files.upload(cleanFile);
+        if (!response.ok) throw new Error(await response.text());
+
+        for (const result of parseResults(await response.text())) {
+          if (result.index === undefined) {
+            throw new Error(result.message);
+          }
+          if (result.status === 'ok') {
             uploadedCount++;
-          } catch (err) {
+          } else {
             skippedCount++;
           }
         }
@@ -57,15 +57,15 @@ const auth = {
 const files = {
   upload: async (file) => {
     const token = localStorage.getItem('token');
-    const formData = new FormData();
-    formData.append('file', file);
 
-    const response = await fetch(`${API_URL}/files/upload`, {
-      method: 'POST',
+    // Sent as the raw body so the server can write it to storage without spooling a multipart copy.
+    const response = await fetch(`${API_URL}/files/stream?name=${encodeURIComponent(file.name)}`, {
+      method: 'PUT',
       headers: {
+        'Content-Type': 'application/octet-stream',
         'Authorization': `Bearer ${token}`
       },
-      body: formData
+      body: file
     });
 
     if (!response.ok) throw new Error('Upload failed');
@@ -108,6 +108,33 @@ const files = {
     return response.blob();
   },
 
+  preview: async (fileId, width, height, version) => {
+    const token = localStorage.getItem('token');
+    const params = new URLSearchParams({ w: width, h: height });
+    if (version) params.append('v', version);
+    const response = await fetch(`${API_URL}/files/${fileId}/preview?${params.toString()}`, {
+      headers: { 'Authorization': `Bearer ${token}` }
+    });
+    if (!response.ok) throw new Error('Preview failed');
+    return response.blob();
+  },
+
+  lines: (fileId, start, count) => api.get(`/files/${fileId}/lines?start=${start}&count=${count}`),
+
+  downloadArchive: async (fileIds) => {
+    const token = localStorage.getItem('token');
+    const response = await fetch(`${API_URL}/files/archive`, {
+      method: 'POST',
+      headers: {
+        'Content-Type': 'application/json',
+        'Authorization': `Bearer ${token}`
+      },
+      body: JSON.stringify({ fileIds })
+    });
+    if (!response.ok) throw new Error('Archive download failed');
+    return response.blob();
+  },
+
   delete: (fileId) => api.delete(`/files/${fileId}`),
 
   getMetadata: (fileId) => api.get(`/files/${fileId}`),
@@ -0,0 +1,74 @@
+export const MANIFEST_TYPE = 'application/vnd.filemanager.manifest';
+
+const MAGIC = [0x46, 0x4d, 0x4d, 0x01];
+
+const writeVarInt = (out, value) => {
+  while (value > 0x7f) {
+    out.push((value & 0x7f) | 0x80);
+    value >>>= 7;
+  }
+  out.push(value);
+};
+
+export const encodeManifest = (...lists) => {
+  const encoder = new TextEncoder();
+  const out = [...MAGIC];
+
+  for (const names of lists) {
+    let previous = new Uint8Array(0);
+    for (const name of names) {
+      const bytes = encoder.encode(name);
+      let prefix = 0;
+      while (prefix < previous.length && prefix < bytes.length && previous[prefix] === bytes[prefix]) {
+        prefix++;
+      }
+      writeVarInt(out, bytes.length - prefix + 1);
+      writeVarInt(out, prefix);
+      for (let i = prefix; i < bytes.length; i++) out.push(bytes[i]);
+      previous = bytes;
+    }
+    writeVarInt(out, 0);
+  }
+
+  return new Uint8Array(out);
+};
+
+export const decodeManifest = (buffer, listCount) => {
+  const data = new Uint8Array(buffer);
+  const decoder = new TextDecoder();
+  let pos = 0;
+
+  const readVarInt = () => {
+    let value = 0;
+    for (let shift = 0; shift < 32; shift += 7) {
+      if (pos >= data.length) throw new Error('Unexpected end of manifest');
+      const b = data[pos++];
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) === 0) return value;
+    }
+    throw new Error('Corrupt manifest varint');
+  };
+
+  for (let i = 0; i < MAGIC.length; i++) {
+    if (data[pos++] !== MAGIC[i]) throw new Error('Not a sync manifest');
+  }
+
+  const lists = [];
+  for (let l = 0; l < listCount; l++) {
+    const names = [];
+    let previous = new Uint8Array(0);
+    for (let header = readVarInt(); header !== 0; header = readVarInt()) {
+      const suffixLength = header - 1;
+      const prefix = readVarInt();
+      const bytes = new Uint8Array(prefix + suffixLength);
+      bytes.set(previous.subarray(0, prefix));
+      bytes.set(data.subarray(pos, pos + suffixLength), prefix);
+      pos += suffixLength;
+      names.push(decoder.decode(bytes));
+      previous = bytes;
+    }
+    lists.push(names);
+  }
+
+  return lists;
+};
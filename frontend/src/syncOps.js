@@ -0,0 +1,28 @@
+export const SYNC_OPS_TYPE = 'application/vnd.filemanager.sync-ops';
+
+const varint = (value) => {
+  const out = [];
+  while (value > 0x7f) {
+    out.push((value % 128) | 0x80);
+    value = Math.floor(value / 128);
+  }
+  out.push(value);
+  return out;
+};
+
+export const buildUploadStream = (entries) => {
+  const encoder = new TextEncoder();
+  const parts = [new Uint8Array([0x46, 0x4d, 0x4f, 0x01])];
+
+  for (const { name, file } of entries) {
+    const nameBytes = encoder.encode(name);
+    parts.push(new Uint8Array([0x55, ...varint(nameBytes.length), ...nameBytes, ...varint(file.size)]));
+    parts.push(file);
+  }
+
+  parts.push(new Uint8Array([0]));
+  return new Blob(parts);
+};
+
+export const parseResults = (text) =>
+  text.split('\n').filter(line => line.trim()).map(line => JSON.parse(line));
@@ -0,0 +1,105 @@
+package org.elsveys.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.service.FileLockTable;
+import org.elsveys.service.FileProcessingService;
+import org.elsveys.service.FileService;
+import org.elsveys.service.QuotaService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Upload and download through {@link FileService} against a temp directory, with the database
+ * replaced by stubs so the numbers reflect the service and the disk.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileServiceBenchmark {
+
+    @Param({"4096", "1048576", "16777216"})
+    private int size;
+
+    private Path directory;
+    private FileService fileService;
+    private byte[] content;
+    private MockMultipartFile multipartFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("file-service-bench");
+        content = new byte[size];
+        new Random(42).nextBytes(content);
+        multipartFile = new MockMultipartFile("file", "upload.bin", "application/octet-stream", content);
+
+        Path stored = Files.write(directory.resolve("1_stored.bin"), content);
+        FileMetadata storedMetadata = new FileMetadata();
+        storedMetadata.setFileId(1L);
+        storedMetadata.setName("stored.bin");
+        storedMetadata.setFilePath(stored.toString());
+        storedMetadata.setSize((long) size);
+
+        FileMetadataRepository repository = mock(FileMetadataRepository.class, withSettings().stubOnly());
+        when(repository.findById(1L)).thenReturn(Optional.of(storedMetadata));
+        when(repository.save(any(FileMetadata.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        QuotaService quotaService = new QuotaService();
+        ReflectionTestUtils.setField(quotaService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(quotaService, "defaultLimit", Long.MAX_VALUE);
+
+        fileService = new FileService();
+        ReflectionTestUtils.setField(fileService, "fileRepository", repository);
+        ReflectionTestUtils.setField(fileService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(fileService, "fileLockTable", new FileLockTable());
+        ReflectionTestUtils.setField(fileService, "fileProcessingService",
+                mock(FileProcessingService.class, withSettings().stubOnly()));
+        ReflectionTestUtils.setField(fileService, "transactionTemplate",
+                new TransactionTemplate(mock(PlatformTransactionManager.class, withSettings().stubOnly())));
+        ReflectionTestUtils.setField(fileService, "quotaService", quotaService);
+        ReflectionTestUtils.setField(fileService, "uploadDir", directory.toString());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public FileMetadata uploadMultipart() throws IOException {
+        return fileService.uploadFile(multipartFile, 1L, "benchmark");
+    }
+
+    @Benchmark
+    public FileMetadata uploadStream() throws IOException {
+        return fileService.uploadStream(new ByteArrayInputStream(content), "raw.bin", size, 1L, "benchmark");
+    }
+
+    @Benchmark
+    public byte[] download() throws IOException {
+        return fileService.downloadFile(1L);
+    }
+}
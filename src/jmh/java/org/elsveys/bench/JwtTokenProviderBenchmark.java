@@ -0,0 +1,54 @@
+package org.elsveys.bench;
+
+import org.elsveys.security.JwtTokenProvider;
+import org.elsveys.security.UserPrincipal;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtTokenProviderBenchmark {
+
+    private JwtTokenProvider provider;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        provider = new JwtTokenProvider();
+        ReflectionTestUtils.setField(provider, "jwtSecret",
+                "benchmark-secret-benchmark-secret-benchmark-secret-benchmark-secret-0123456789");
+        ReflectionTestUtils.setField(provider, "jwtExpiration", 3_600_000L);
+        ReflectionTestUtils.setField(provider, "cacheMaxEntries", 10_000);
+        ReflectionTestUtils.setField(provider, "revokedMaxEntries", 10_000);
+        ReflectionTestUtils.invokeMethod(provider, "init");
+        token = provider.generateToken(42L, "benchmark");
+    }
+
+    @Benchmark
+    public String generate() {
+        return provider.generateToken(42L, "benchmark");
+    }
+
+    /**
+     * Repeated validation of the same token, served from the verified-token cache.
+     */
+    @Benchmark
+    public boolean validate() {
+        return provider.validateToken(token);
+    }
+
+    /**
+     * Full signature check and claims parsing; the cache is emptied first so every call misses.
+     */
+    @Benchmark
+    public UserPrincipal parseUncached() {
+        provider.invalidateCache();
+        return provider.parseToken(token);
+    }
+}
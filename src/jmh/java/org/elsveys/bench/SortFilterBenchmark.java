@@ -0,0 +1,60 @@
+package org.elsveys.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.service.SortFilterService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SortFilterService#filterByType} over in-memory lists, with the requested types covering
+ * roughly a quarter of the distinct types present.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortFilterBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int files;
+
+    @Param({"4", "40"})
+    private int distinctTypes;
+
+    private SortFilterService service;
+    private List<FileMetadata> metadata;
+    private List<String> requestedTypes;
+
+    @Setup
+    public void setUp() {
+        service = new SortFilterService();
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+
+        Random random = new Random(42);
+        metadata = new ArrayList<>(files);
+        for (int i = 0; i < files; i++) {
+            FileMetadata file = new FileMetadata();
+            file.setFileId((long) i);
+            file.setName("file-" + i);
+            file.setType("t" + random.nextInt(distinctTypes));
+            metadata.add(file);
+        }
+        requestedTypes = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, distinctTypes / 4); i++) {
+            requestedTypes.add("t" + i);
+        }
+    }
+
+    @Benchmark
+    public List<FileMetadata> filterByType() {
+        return service.filterByType(metadata, requestedTypes);
+    }
+}
@@ -0,0 +1,59 @@
+package org.elsveys.bench;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.contoller.SyncController;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.service.FileService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.*;
+
+/**
+ * The JSON {@code /api/sync/compare} path with half of the local names already present remotely.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SyncCompareBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    private int names;
+
+    private SyncController controller;
+    private Map<String, Object> payload;
+
+    @Setup
+    public void setUp() {
+        List<FileMetadata> remote = new ArrayList<>(names);
+        List<String> local = new ArrayList<>(names);
+        for (int i = 0; i < names; i++) {
+            FileMetadata file = new FileMetadata();
+            file.setName("remote/dir-" + (i % 1000) + "/file-" + i + ".kt");
+            remote.add(file);
+            local.add(i % 2 == 0 ? file.getName() : "local/dir-" + (i % 1000) + "/file-" + i + ".kt");
+        }
+
+        FileService fileService = mock(FileService.class, withSettings().stubOnly());
+        when(fileService.listAllFiles()).thenReturn(remote);
+
+        controller = new SyncController();
+        ReflectionTestUtils.setField(controller, "fileService", fileService);
+        ReflectionTestUtils.setField(controller, "meterRegistry", new SimpleMeterRegistry());
+        payload = Map.of("localFiles", local);
+    }
+
+    @Benchmark
+    public ResponseEntity<?> compareFiles() {
+        return controller.compareFiles(payload, "Bearer benchmark");
+    }
+}
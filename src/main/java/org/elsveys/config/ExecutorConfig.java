@@ -0,0 +1,66 @@
+package org.elsveys.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@EnableScheduling
+public class ExecutorConfig {
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService syncApplyExecutor(@Value("${sync.apply.max-threads:32}") int maxThreads) {
+        // Each running sync apply holds two stage threads; when all are busy new requests are rejected.
+        // With virtual threads the limit only bounds concurrent applies, so idle workers are not kept around.
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("sync-apply-", 1).factory()
+                : new CustomizableThreadFactory("sync-apply-");
+        return new ThreadPoolExecutor(0, maxThreads, virtualThreads ? 0 : 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), threadFactory);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor passwordHashExecutor(
+            @Value("${auth.hashing.threads:0}") int threads,
+            @Value("${auth.hashing.queue-capacity:64}") int queueCapacity) {
+        // Kept away from the request pool so a login storm cannot starve file transfers.
+        // Hashing is CPU bound, so this pool stays on platform threads even in virtual-thread mode.
+        int poolSize = threads > 0 ? threads : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        return new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory("password-hash-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor fileHashExecutor(
+            @Value("${files.processing.hash-threads:2}") int threads,
+            @Value("${files.processing.queue-capacity:256}") int queueCapacity) {
+        return processingPool("file-hash-", threads, queueCapacity);
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolExecutor fileMimeExecutor(
+            @Value("${files.processing.mime-threads:1}") int threads,
+            @Value("${files.processing.queue-capacity:256}") int queueCapacity) {
+        return processingPool("file-mime-", threads, queueCapacity);
+    }
+
+    private ThreadPoolExecutor processingPool(String prefix, int threads, int queueCapacity) {
+        // A full queue rejects the hand-off; the task stays pending in the database for the next poll.
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new CustomizableThreadFactory(prefix),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
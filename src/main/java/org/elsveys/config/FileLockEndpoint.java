@@ -0,0 +1,24 @@
+package org.elsveys.config;
+
+import org.elsveys.service.FileLockTable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+@Component
+@Endpoint(id = "filelocks")
+public class FileLockEndpoint {
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @ReadOperation
+    public List<Map<String, Object>> hotFiles(@Nullable Integer limit) {
+        return fileLockTable.hotFiles(limit != null ? limit : 20);
+    }
+}
@@ -0,0 +1,88 @@
+package org.elsveys.config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/**
+ * Caffeine-backed JCache regions for the Hibernate second-level and query caches.
+ *
+ * Every region is created here with its own bound, and Hibernate is told to fail on any region it
+ * would otherwise create unbounded. Entries also expire after {@code files.cache.time-to-live}: writes
+ * through this instance invalidate its cache immediately, and the expiry bounds how long another
+ * instance can serve metadata that was changed elsewhere. The update timestamps region is the
+ * exception; Hibernate treats a missing timestamp as "not modified", so it is neither bounded nor expired.
+ */
+@Configuration
+@EnableConfigurationProperties(MetadataCacheProperties.class)
+public class MetadataCacheConfig {
+
+    public static final String FILE_METADATA_REGION = "file-metadata";
+    public static final String USER_REGION = "users";
+    public static final String FILE_LISTING_REGION = "file-listing";
+    public static final String DEFAULT_QUERY_REGION = "default-query-results-region";
+    public static final String TIMESTAMPS_REGION = "default-update-timestamps-region";
+
+    @Bean(destroyMethod = "close")
+    public CacheManager metadataCacheManager(MetadataCacheProperties properties) {
+        // A manager of its own per application context, so test contexts living side by side do not share regions.
+        CacheManager cacheManager = Caching.getCachingProvider(CaffeineCachingProvider.class.getName())
+                .getCacheManager(URI.create("urn:filemanager:metadata-cache:" + UUID.randomUUID()),
+                        MetadataCacheConfig.class.getClassLoader());
+
+        for (Map.Entry<String, Long> region : properties.getMaxEntries().entrySet()) {
+            CaffeineConfiguration<Object, Object> configuration = new CaffeineConfiguration<>();
+            configuration.setMaximumSize(OptionalLong.of(region.getValue()));
+            configuration.setExpireAfterWrite(OptionalLong.of(properties.getTimeToLive().toNanos()));
+            cacheManager.createCache(region.getKey(), configuration);
+        }
+        if (cacheManager.getCache(TIMESTAMPS_REGION) == null) {
+            cacheManager.createCache(TIMESTAMPS_REGION, new CaffeineConfiguration<>());
+        }
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer metadataCacheCustomizer(CacheManager metadataCacheManager) {
+        return hibernateProperties -> {
+            hibernateProperties.put(ConfigSettings.CACHE_MANAGER, metadataCacheManager);
+            hibernateProperties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    @Bean
+    public MeterBinder metadataCacheMetrics(CacheManager metadataCacheManager, MetadataCacheProperties properties) {
+        // Hit, miss and put counts per region come from Hibernate's statistics; these add how full each region is.
+        return registry -> {
+            for (String name : metadataCacheManager.getCacheNames()) {
+                Cache<Object, Object> cache = metadataCacheManager.getCache(name);
+                com.github.benmanes.caffeine.cache.Cache<?, ?> caffeine =
+                        cache.unwrap(com.github.benmanes.caffeine.cache.Cache.class);
+                Gauge.builder("hibernate.cache.region.size", caffeine, c -> c.estimatedSize())
+                        .tag("region", name)
+                        .description("Estimated number of entries in the cache region")
+                        .register(registry);
+                Long maxEntries = properties.getMaxEntries().get(name);
+                if (maxEntries != null) {
+                    Gauge.builder("hibernate.cache.region.max.size", () -> maxEntries)
+                            .tag("region", name)
+                            .register(registry);
+                }
+            }
+        };
+    }
+}
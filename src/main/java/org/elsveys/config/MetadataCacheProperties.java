@@ -0,0 +1,29 @@
+package org.elsveys.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@ConfigurationProperties(prefix = "files.cache")
+public class MetadataCacheProperties {
+
+    private Duration timeToLive = Duration.ofSeconds(60);
+    private Map<String, Long> maxEntries = defaultMaxEntries();
+
+    private static Map<String, Long> defaultMaxEntries() {
+        Map<String, Long> maxEntries = new LinkedHashMap<>();
+        maxEntries.put(MetadataCacheConfig.FILE_METADATA_REGION, 10_000L);
+        maxEntries.put(MetadataCacheConfig.USER_REGION, 1_000L);
+        maxEntries.put(MetadataCacheConfig.FILE_LISTING_REGION, 16L);
+        maxEntries.put(MetadataCacheConfig.DEFAULT_QUERY_REGION, 256L);
+        return maxEntries;
+    }
+
+    public Duration getTimeToLive() { return timeToLive; }
+    public void setTimeToLive(Duration timeToLive) { this.timeToLive = timeToLive; }
+
+    public Map<String, Long> getMaxEntries() { return maxEntries; }
+    public void setMaxEntries(Map<String, Long> maxEntries) { this.maxEntries = maxEntries; }
+}
@@ -0,0 +1,82 @@
+package org.elsveys.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "ratelimit")
+public class RateLimitProperties {
+
+    public enum KeyType { IP, USER }
+
+    private boolean enabled = true;
+    private int maxKeys = 100_000;
+    private int stripes = 64;
+    private Duration idleTimeout = Duration.ofMinutes(10);
+    private List<Rule> rules = defaultRules();
+
+    public static class Rule {
+        private String name;
+        private String method;
+        private String path;
+        private KeyType key = KeyType.IP;
+        private int capacity;
+        private double refillPerSecond;
+
+        public Rule() {}
+
+        public Rule(String name, String method, String path, KeyType key, int capacity, double refillPerSecond) {
+            this.name = name;
+            this.method = method;
+            this.path = path;
+            this.key = key;
+            this.capacity = capacity;
+            this.refillPerSecond = refillPerSecond;
+        }
+
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+
+        public String getMethod() { return method; }
+        public void setMethod(String method) { this.method = method; }
+
+        public String getPath() { return path; }
+        public void setPath(String path) { this.path = path; }
+
+        public KeyType getKey() { return key; }
+        public void setKey(KeyType key) { this.key = key; }
+
+        public int getCapacity() { return capacity; }
+        public void setCapacity(int capacity) { this.capacity = capacity; }
+
+        public double getRefillPerSecond() { return refillPerSecond; }
+        public void setRefillPerSecond(double refillPerSecond) { this.refillPerSecond = refillPerSecond; }
+    }
+
+    private static List<Rule> defaultRules() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("login", "POST", "/api/auth/login", KeyType.IP, 10, 0.2));
+        rules.add(new Rule("register", "POST", "/api/auth/register", KeyType.IP, 5, 0.05));
+        rules.add(new Rule("upload", "POST", "/api/files/upload", KeyType.USER, 50, 10));
+        rules.add(new Rule("update", "PUT", "/api/files/*", KeyType.USER, 50, 10));
+        rules.add(new Rule("sync-apply", "POST", "/api/sync/apply", KeyType.USER, 5, 0.5));
+        return rules;
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public int getMaxKeys() { return maxKeys; }
+    public void setMaxKeys(int maxKeys) { this.maxKeys = maxKeys; }
+
+    public int getStripes() { return stripes; }
+    public void setStripes(int stripes) { this.stripes = stripes; }
+
+    public Duration getIdleTimeout() { return idleTimeout; }
+    public void setIdleTimeout(Duration idleTimeout) { this.idleTimeout = idleTimeout; }
+
+    public List<Rule> getRules() { return rules; }
+    public void setRules(List<Rule> rules) { this.rules = rules; }
+}
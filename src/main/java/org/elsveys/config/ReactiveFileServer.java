@@ -0,0 +1,70 @@
+package org.elsveys.config;
+
+import org.elsveys.contoller.ReactiveFileHandler;
+import org.elsveys.security.ReactiveRequestFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.stereotype.Component;
+import org.springframework.web.cors.reactive.CorsWebFilter;
+import org.springframework.web.cors.reactive.UrlBasedCorsConfigurationSource;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+/**
+ * Runs the reactive file endpoints on their own Reactor Netty server next to the servlet container,
+ * so slow transfers are served by a handful of event-loop threads instead of one worker each. Requests pass
+ * the same CORS rules, authentication, rate limits and upload admission as on the servlet side.
+ */
+@Component
+@ConditionalOnProperty(name = "file.reactive.enabled", havingValue = "true")
+public class ReactiveFileServer implements SmartLifecycle {
+
+    @Autowired
+    private ReactiveFileHandler reactiveFileHandler;
+
+    @Autowired
+    private ReactiveRequestFilter reactiveRequestFilter;
+
+    @Value("${file.reactive.port:8082}")
+    private int port;
+
+    private volatile DisposableServer server;
+
+    @Override
+    public void start() {
+        HttpHandler handler = WebHttpHandlerBuilder
+                .webHandler(RouterFunctions.toWebHandler(reactiveFileHandler.routes()))
+                .filter(new CorsWebFilter(corsConfigurationSource()), reactiveRequestFilter)
+                .build();
+        server = HttpServer.create()
+                .port(port)
+                .handle(new ReactorHttpHandlerAdapter(handler))
+                .bindNow();
+    }
+
+    @Override
+    public void stop() {
+        DisposableServer running = server;
+        if (running != null) {
+            running.disposeNow();
+            server = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    private UrlBasedCorsConfigurationSource corsConfigurationSource() {
+        UrlBasedCorsConfigurationSource source = new UrlBasedCorsConfigurationSource();
+        source.registerCorsConfiguration("/**", SecurityConfig.corsConfiguration());
+        return source;
+    }
+}
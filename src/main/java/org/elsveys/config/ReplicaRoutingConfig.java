@@ -0,0 +1,89 @@
+package org.elsveys.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.orm.jpa.JpaTransactionManager;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces the auto-configured data source with one that routes read-only transactions to replicas
+ * when {@code datasource.routing.enabled} is set. The primary keeps its {@code spring.datasource.*}
+ * settings; replicas are listed under {@code datasource.routing.replicas}. The transaction manager is
+ * replaced too, so that what a replica returns is kept out of the Hibernate caches.
+ *
+ * Requires {@code spring.jpa.open-in-view=false}. With open-in-view a session keeps its connection for
+ * the whole request, so a write after a replica-routed read would go to the replica.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.routing.enabled", havingValue = "true")
+@EnableConfigurationProperties(ReplicaRoutingProperties.class)
+public class ReplicaRoutingConfig {
+
+    @Bean(defaultCandidate = false)
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties dataSourceProperties, MeterRegistry meterRegistry) {
+        HikariDataSource dataSource = dataSourceProperties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return dataSource;
+    }
+
+    @Bean(defaultCandidate = false)
+    public ReplicaRoutingDataSource routingDataSource(
+            @Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+            ReplicaRoutingProperties properties,
+            MeterRegistry meterRegistry) {
+        List<DataSource> replicas = new ArrayList<>();
+        for (ReplicaRoutingProperties.Replica replica : properties.getReplicas()) {
+            HikariDataSource dataSource = DataSourceBuilder.create()
+                    .type(HikariDataSource.class)
+                    .url(replica.getUrl())
+                    .username(replica.getUsername())
+                    .password(replica.getPassword())
+                    .build();
+            dataSource.setPoolName("replica-" + (replicas.size() + 1));
+            dataSource.setMaximumPoolSize(replica.getMaxPoolSize());
+            dataSource.setReadOnly(true);
+            dataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+            replicas.add(dataSource);
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, properties, meterRegistry);
+    }
+
+    @Bean
+    public JpaTransactionManager transactionManager(
+            @Qualifier("routingDataSource") ReplicaRoutingDataSource routingDataSource,
+            ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+        JpaTransactionManager transactionManager = new ReplicaRoutingTransactionManager(routingDataSource);
+        transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+        return transactionManager;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(
+            @Qualifier("routingDataSource") ReplicaRoutingDataSource routingDataSource,
+            @Value("${spring.jpa.open-in-view:true}") boolean openInView) {
+        if (openInView) {
+            throw new IllegalStateException("datasource.routing.enabled requires spring.jpa.open-in-view=false");
+        }
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+}
@@ -0,0 +1,223 @@
+package org.elsveys.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elsveys.security.StripedLruCache;
+import org.elsveys.security.UserPrincipal;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends connections of read-only transactions to a replica and everything else to the primary.
+ *
+ * Two safeguards bound how stale a replica read can be. A replica is only used while its measured lag is
+ * within {@code max-lag}; the lag is re-checked every {@code lag-check-interval-ms}, and a replica that cannot
+ * be checked is skipped. On top of that a user who committed a write reads from the primary for
+ * {@code stickiness} afterwards, so their own changes are visible even if a replica falls behind between
+ * checks. Requests without a user only get the lag bound.
+ *
+ * A session that reads from a replica may still find entities in the second-level cache, but adds nothing
+ * to it or to the query cache; otherwise a stale replica result would be cached as current and served,
+ * even to a user reading from the primary, until it expires. Hibernate settles whether results are cached
+ * before it asks for a connection, so {@link ReplicaRoutingTransactionManager} makes that choice when the
+ * transaction begins, and a transaction whose session caches its results is kept on the primary.
+ *
+ * Must sit behind a {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}: the transaction
+ * manager opens the connection before the read-only flag of the transaction is set.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    static final String PRIMARY = "primary";
+    private static final int STICKY_STRIPES = 16;
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final StripedLruCache<Long, Boolean> stickyUsers;
+    private final long stickinessNanos;
+    private final double maxLagSeconds;
+    private final String lagQuery;
+    private final MeterRegistry meterRegistry;
+
+    static class Replica {
+        final String key;
+        final DataSource dataSource;
+        volatile boolean usable;
+        volatile double lagSeconds = Double.NaN;
+
+        Replica(String key, DataSource dataSource) {
+            this.key = key;
+            this.dataSource = dataSource;
+        }
+    }
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicaDataSources,
+                                    ReplicaRoutingProperties properties, MeterRegistry meterRegistry) {
+        this.stickyUsers = new StripedLruCache<>(properties.getMaxStickyUsers(), STICKY_STRIPES);
+        this.stickinessNanos = properties.getStickiness().toNanos();
+        this.maxLagSeconds = properties.getMaxLag().toMillis() / 1000.0;
+        this.lagQuery = properties.getLagQuery();
+        this.meterRegistry = meterRegistry;
+
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        for (int i = 0; i < replicaDataSources.size(); i++) {
+            Replica replica = new Replica("replica-" + (i + 1), replicaDataSources.get(i));
+            replicas.add(replica);
+            targets.put(replica.key, replica.dataSource);
+            Gauge.builder("datasource.replica.lag", replica, r -> r.lagSeconds)
+                    .tag("replica", replica.key)
+                    .baseUnit("seconds")
+                    .register(meterRegistry);
+            Gauge.builder("datasource.replica.usable", replica, r -> r.usable ? 1 : 0)
+                    .tag("replica", replica.key)
+                    .register(meterRegistry);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        Long userId = currentUserId();
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            if (userId != null && TransactionSynchronizationManager.isActualTransactionActive()) {
+                stickAfterCommit(userId);
+            }
+            return route(PRIMARY, "read-write");
+        }
+        if (userId != null && stickyUsers.get(userId, System.nanoTime()) != null) {
+            return route(PRIMARY, "sticky");
+        }
+        Replica replica = nextUsableReplica();
+        if (replica == null) {
+            return route(PRIMARY, "no-replica");
+        }
+        if (sessionCachesResults()) {
+            return route(PRIMARY, "caching");
+        }
+        return route(replica.key, "read");
+    }
+
+    /**
+     * Whether a read-only transaction beginning now is going to read from a replica.
+     */
+    public boolean readsFromReplica() {
+        Long userId = currentUserId();
+        if (userId != null && stickyUsers.get(userId, System.nanoTime()) != null) {
+            return false;
+        }
+        for (Replica replica : replicas) {
+            if (replica.usable) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Measures the lag of every replica and takes those behind by more than {@code max-lag} out of rotation.
+     */
+    @Scheduled(fixedDelayString = "${datasource.routing.lag-check-interval-ms:1000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(lagQuery)) {
+                replica.lagSeconds = resultSet.next() ? resultSet.getDouble(1) : Double.NaN;
+            } catch (SQLException e) {
+                if (replica.usable) {
+                    log.warn("Taking {} out of rotation: {}", replica.key, e.getMessage());
+                }
+                replica.lagSeconds = Double.NaN;
+            }
+            // NaN (unknown lag) fails the comparison as well.
+            replica.usable = replica.lagSeconds <= maxLagSeconds;
+        }
+    }
+
+    /**
+     * Closes the replica pools; the primary is closed by its own bean.
+     */
+    public void close() throws Exception {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private void stickAfterCommit(Long userId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            // Measured from the commit, so a long transaction does not eat into the window.
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    stick(userId);
+                }
+            });
+        } else {
+            stick(userId);
+        }
+    }
+
+    private void stick(Long userId) {
+        stickyUsers.put(userId, Boolean.TRUE, System.nanoTime() + stickinessNanos);
+    }
+
+    private Replica nextUsableReplica() {
+        int count = replicas.size();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(1, count));
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get((start + i) % count);
+            if (replica.usable) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    private static boolean sessionCachesResults() {
+        for (Object resource : TransactionSynchronizationManager.getResourceMap().values()) {
+            if (resource instanceof EntityManagerHolder holder
+                    && holder.getEntityManager().unwrap(Session.class).getCacheMode().isPutEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String route(String key, String reason) {
+        meterRegistry.counter("datasource.routing", "target", key.equals(PRIMARY) ? PRIMARY : "replica",
+                "reason", reason).increment();
+        return key;
+    }
+
+    private static Long currentUserId() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null && authentication.getPrincipal() instanceof UserPrincipal principal) {
+            return principal.getUserId();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package org.elsveys.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "datasource.routing")
+public class ReplicaRoutingProperties {
+
+    private boolean enabled = false;
+    private Duration stickiness = Duration.ofSeconds(5);
+    private Duration maxLag = Duration.ofSeconds(2);
+    private String lagQuery = "select case when pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() then 0 "
+            + "else extract(epoch from now() - pg_last_xact_replay_timestamp()) end";
+    private int maxStickyUsers = 100_000;
+    private List<Replica> replicas = new ArrayList<>();
+
+    public static class Replica {
+        private String url;
+        private String username;
+        private String password;
+        private int maxPoolSize = 10;
+
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+
+        public String getUsername() { return username; }
+        public void setUsername(String username) { this.username = username; }
+
+        public String getPassword() { return password; }
+        public void setPassword(String password) { this.password = password; }
+
+        public int getMaxPoolSize() { return maxPoolSize; }
+        public void setMaxPoolSize(int maxPoolSize) { this.maxPoolSize = maxPoolSize; }
+    }
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public Duration getStickiness() { return stickiness; }
+    public void setStickiness(Duration stickiness) { this.stickiness = stickiness; }
+
+    public Duration getMaxLag() { return maxLag; }
+    public void setMaxLag(Duration maxLag) { this.maxLag = maxLag; }
+
+    public String getLagQuery() { return lagQuery; }
+    public void setLagQuery(String lagQuery) { this.lagQuery = lagQuery; }
+
+    public int getMaxStickyUsers() { return maxStickyUsers; }
+    public void setMaxStickyUsers(int maxStickyUsers) { this.maxStickyUsers = maxStickyUsers; }
+
+    public List<Replica> getReplicas() { return replicas; }
+    public void setReplicas(List<Replica> replicas) { this.replicas = replicas; }
+}
@@ -0,0 +1,38 @@
+package org.elsveys.config;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Decides when a transaction begins whether its session may add to the second-level and query caches.
+ * A read-only transaction that will read from a replica adds nothing to them; every other one uses them
+ * normally. The mode is set on the session each transaction begins with.
+ */
+class ReplicaRoutingTransactionManager extends JpaTransactionManager {
+
+    static final String STORE_MODE = "jakarta.persistence.cache.storeMode";
+
+    private final ReplicaRoutingDataSource routingDataSource;
+
+    ReplicaRoutingTransactionManager(ReplicaRoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        super.doBegin(transaction, definition);
+        EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(obtainEntityManagerFactory());
+        boolean replica = definition.isReadOnly() && routingDataSource.readsFromReplica();
+        EntityManager entityManager = holder.getEntityManager();
+        // EntityManager#find reads the JPA property, queries the session's cache mode. Queries skip the query
+        // cache entirely: with CacheMode.GET a cacheable query that misses still stores what it read.
+        entityManager.setProperty(STORE_MODE, replica ? CacheStoreMode.BYPASS : CacheStoreMode.USE);
+        entityManager.unwrap(Session.class).setCacheMode(replica ? CacheMode.IGNORE : CacheMode.NORMAL);
+    }
+}
@@ -0,0 +1,55 @@
+package org.elsveys.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@ConfigurationProperties(prefix = "upload.admission")
+public class UploadAdmissionProperties {
+
+    private boolean enabled = true;
+    private List<String> endpoints = new ArrayList<>(List.of("POST /api/files/upload", "PUT /api/files/*"));
+    private long maxBytes = 512L * 1024 * 1024;
+    private int maxUploads = 32;
+    private long perUserMaxBytes = 128L * 1024 * 1024;
+    private int perUserMaxUploads = 4;
+    private long smallFileBytes = 1024 * 1024;
+    private int smallMaxUploads = 64;
+    private long unknownLengthBytes = 64L * 1024 * 1024;
+    private long drainBytesPerSecond = 64L * 1024 * 1024;
+    private int maxRetryAfterSeconds = 60;
+
+    public boolean isEnabled() { return enabled; }
+    public void setEnabled(boolean enabled) { this.enabled = enabled; }
+
+    public List<String> getEndpoints() { return endpoints; }
+    public void setEndpoints(List<String> endpoints) { this.endpoints = endpoints; }
+
+    public long getMaxBytes() { return maxBytes; }
+    public void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; }
+
+    public int getMaxUploads() { return maxUploads; }
+    public void setMaxUploads(int maxUploads) { this.maxUploads = maxUploads; }
+
+    public long getPerUserMaxBytes() { return perUserMaxBytes; }
+    public void setPerUserMaxBytes(long perUserMaxBytes) { this.perUserMaxBytes = perUserMaxBytes; }
+
+    public int getPerUserMaxUploads() { return perUserMaxUploads; }
+    public void setPerUserMaxUploads(int perUserMaxUploads) { this.perUserMaxUploads = perUserMaxUploads; }
+
+    public long getSmallFileBytes() { return smallFileBytes; }
+    public void setSmallFileBytes(long smallFileBytes) { this.smallFileBytes = smallFileBytes; }
+
+    public int getSmallMaxUploads() { return smallMaxUploads; }
+    public void setSmallMaxUploads(int smallMaxUploads) { this.smallMaxUploads = smallMaxUploads; }
+
+    public long getUnknownLengthBytes() { return unknownLengthBytes; }
+    public void setUnknownLengthBytes(long unknownLengthBytes) { this.unknownLengthBytes = unknownLengthBytes; }
+
+    public long getDrainBytesPerSecond() { return drainBytesPerSecond; }
+    public void setDrainBytesPerSecond(long drainBytesPerSecond) { this.drainBytesPerSecond = drainBytesPerSecond; }
+
+    public int getMaxRetryAfterSeconds() { return maxRetryAfterSeconds; }
+    public void setMaxRetryAfterSeconds(int maxRetryAfterSeconds) { this.maxRetryAfterSeconds = maxRetryAfterSeconds; }
+}
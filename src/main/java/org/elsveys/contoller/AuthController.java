@@ -2,9 +2,14 @@ package org.elsveys.contoller;
 
 import org.elsveys.model.dto.LoginRequest;
 import org.elsveys.model.dto.RegisterRequest;
+import org.elsveys.security.UserPrincipal;
 import org.elsveys.service.AuthService;
+import org.elsveys.service.ServiceOverloadedException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
@@ -32,6 +37,8 @@ public class AuthController {
             response.put("username", request.getUsername());
 
             return ResponseEntity.ok(response);
+        } catch (ServiceOverloadedException e) {
+            return tooManyRequests(e);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
@@ -50,22 +57,35 @@ public class AuthController {
             response.put("username", request.getUsername());
 
             return ResponseEntity.ok(response);
+        } catch (ServiceOverloadedException e) {
+            return tooManyRequests(e);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
-    @GetMapping("/validate")
-    public ResponseEntity<?> validateToken(@RequestHeader("Authorization") String authHeader) {
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@RequestHeader("Authorization") String authHeader) {
         try {
             String token = authHeader.replace("Bearer ", "");
-            boolean valid = authService.validateToken(token);
+            authService.logout(token);
+            return ResponseEntity.ok("Logged out successfully");
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/validate")
+    public ResponseEntity<?> validateToken(@AuthenticationPrincipal UserPrincipal principal) {
+        try {
+            // The token was already verified by JwtAuthenticationFilter; an invalid one leaves no principal.
+            boolean valid = principal != null;
 
             Map<String, Object> response = new HashMap<>();
             response.put("valid", valid);
 
             if (valid) {
-                response.put("username", authService.getUsernameFromToken(token));
+                response.put("username", principal.getUsername());
             }
 
             return ResponseEntity.ok(response);
@@ -73,4 +93,10 @@ public class AuthController {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    private ResponseEntity<?> tooManyRequests(ServiceOverloadedException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+}
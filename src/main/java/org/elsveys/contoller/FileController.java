@@ -1,18 +1,33 @@
 package org.elsveys.contoller;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.elsveys.model.FileMetadata;
-import org.elsveys.service.AuthService;
+import org.elsveys.model.dto.ArchiveRequest;
+import org.elsveys.security.DownloadUrlSigner;
+import org.elsveys.security.UserPrincipal;
 import org.elsveys.service.FileService;
+import org.elsveys.service.LineIndexService;
+import org.elsveys.service.PreviewService;
+import org.elsveys.service.QuotaService;
 import org.elsveys.service.SortFilterService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/files")
@@ -26,23 +41,38 @@ public class FileController {
     private SortFilterService sortFilterService;
 
     @Autowired
-    private AuthService authService;
+    private DownloadUrlSigner downloadUrlSigner;
 
-    private Long getUserIdFromHeader(String authHeader) {
-        String token = authHeader.replace("Bearer ", "");
-        return authService.getUserIdFromToken(token);
-    }
+    @Autowired
+    private PreviewService previewService;
+
+    @Autowired
+    private LineIndexService lineIndexService;
+
+    @Autowired
+    private QuotaService quotaService;
 
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFile(
             @RequestParam("file") MultipartFile file,
-            @RequestHeader("Authorization") String authHeader) {
+            @AuthenticationPrincipal UserPrincipal principal) {
         try {
-            String token = authHeader.replace("Bearer ", "");
-            Long userId = authService.getUserIdFromToken(token);
-            String username = authService.getUsernameFromToken(token);
+            FileMetadata metadata = fileService.uploadFile(file, principal.getUserId(), principal.getUsername());
+            return ResponseEntity.ok(metadata);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
 
-            FileMetadata metadata = fileService.uploadFile(file, userId, username);
+    @PutMapping(value = "/stream", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public ResponseEntity<?> uploadStream(
+            @RequestParam("name") String name,
+            HttpServletRequest request,
+            @AuthenticationPrincipal UserPrincipal principal) {
+        try {
+            // The body is read straight from the connection; nothing is spooled before the service sees it.
+            FileMetadata metadata = fileService.uploadStream(request.getInputStream(), name,
+                    request.getContentLengthLong(), principal.getUserId(), principal.getUsername());
             return ResponseEntity.ok(metadata);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
@@ -67,20 +97,93 @@ public class FileController {
         }
     }
 
-    @PutMapping("/{fileId}")
-    public ResponseEntity<?> updateFile(
+    @GetMapping("/{fileId}/signed-url")
+    public ResponseEntity<?> getSignedDownloadUrl(
             @PathVariable Long fileId,
-            @RequestParam("file") MultipartFile file,
             @RequestHeader("Authorization") String authHeader) {
         try {
-            String token = authHeader.replace("Bearer ", "");
-            Long userId = authService.getUserIdFromToken(token);
-            String username = authService.getUsernameFromToken(token);
+            FileMetadata metadata = fileService.getFileMetadata(fileId);
+            long expiresAt = downloadUrlSigner.nextExpiry(System.currentTimeMillis() / 1000);
 
+            Map<String, Object> response = new HashMap<>();
+            response.put("url", downloadUrlSigner.createUrl(fileId, metadata.getContentVersion(), expiresAt));
+            response.put("expiresAt", expiresAt);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{fileId}/preview")
+    public ResponseEntity<?> getPreview(
+            @PathVariable Long fileId,
+            @RequestParam(value = "w", defaultValue = "256") int width,
+            @RequestParam(value = "h", defaultValue = "256") int height,
+            @RequestParam(value = "v", required = false) String version,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
             FileMetadata metadata = fileService.getFileMetadata(fileId);
+            PreviewService.Preview preview = previewService.getPreview(metadata, width, height);
 
+            // A request naming the current content version can be cached for good; the URL changes with the content.
+            CacheControl cacheControl = PreviewService.version(metadata).equals(version)
+                    ? CacheControl.maxAge(Duration.ofDays(365)).cachePrivate().immutable()
+                    : CacheControl.noCache().cachePrivate();
 
-            FileMetadata updatedMetadata = fileService.updateFile(fileId, file, userId, username);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(preview.getMediaType()))
+                    .contentLength(preview.getSize())
+                    .cacheControl(cacheControl)
+                    .eTag(preview.getVersion())
+                    .body(new InputStreamResource(preview.getStream()));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @GetMapping("/{fileId}/lines")
+    public ResponseEntity<?> getLines(
+            @PathVariable Long fileId,
+            @RequestParam(value = "start", defaultValue = "0") long start,
+            @RequestParam(value = "count", defaultValue = "200") int count,
+            @RequestHeader("Authorization") String authHeader) {
+        try {
+            FileMetadata metadata = fileService.getFileMetadata(fileId);
+            return ResponseEntity.ok(lineIndexService.readLines(metadata, start, count));
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @PostMapping("/archive")
+    public void downloadArchive(
+            @RequestBody ArchiveRequest request,
+            @RequestHeader("Authorization") String authHeader,
+            HttpServletResponse response) throws IOException {
+        List<FileMetadata> files;
+        try {
+            files = fileService.getFilesMetadata(request.getFileIds());
+        } catch (Exception e) {
+            response.setStatus(HttpStatus.BAD_REQUEST.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+            response.getWriter().write(String.valueOf(e.getMessage()));
+            return;
+        }
+
+        // Written straight to the response so the archive is built on the fly without a temp file.
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"files.zip\"");
+        fileService.writeArchive(files, response.getOutputStream());
+    }
+
+    @PutMapping("/{fileId}")
+    public ResponseEntity<?> updateFile(
+            @PathVariable Long fileId,
+            @RequestParam("file") MultipartFile file,
+            @AuthenticationPrincipal UserPrincipal principal) {
+        try {
+            FileMetadata updatedMetadata = fileService.updateFile(fileId, file, principal.getUserId(), principal.getUsername());
             return ResponseEntity.ok(updatedMetadata);
         } catch (Exception e) {
             return ResponseEntity.badRequest().body(e.getMessage());
@@ -90,12 +193,11 @@ public class FileController {
     @DeleteMapping("/{fileId}")
     public ResponseEntity<?> deleteFile(
             @PathVariable Long fileId,
-            @RequestHeader("Authorization") String authHeader) {
+            @AuthenticationPrincipal UserPrincipal principal) {
         try {
-            Long userId = getUserIdFromHeader(authHeader);
             FileMetadata metadata = fileService.getFileMetadata(fileId);
 
-            if (!metadata.getUploaderId().equals(userId)) {
+            if (!metadata.getUploaderId().equals(principal.getUserId())) {
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Access denied");
             }
 
@@ -129,6 +231,14 @@ public class FileController {
         }
     }
 
+    @GetMapping("/quota")
+    public ResponseEntity<?> getQuota(@AuthenticationPrincipal UserPrincipal principal) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("usedBytes", quotaService.getUsed(principal.getUserId()));
+        response.put("limitBytes", quotaService.getLimit(principal.getUserId()));
+        return ResponseEntity.ok(response);
+    }
+
     @GetMapping("/{fileId}")
     public ResponseEntity<?> getFileMetadata(
             @PathVariable Long fileId,
@@ -141,7 +251,7 @@ public class FileController {
         }
     }
 
-    private MediaType getMediaType(String extension) {
+    static MediaType getMediaType(String extension) {
         switch (extension.toLowerCase()) {
             case "jpg":
             case "jpeg":
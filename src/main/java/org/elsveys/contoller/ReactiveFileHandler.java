@@ -0,0 +1,182 @@
+package org.elsveys.contoller;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.security.ReactiveRequestFilter;
+import org.elsveys.security.UserPrincipal;
+import org.elsveys.service.FileLockTable;
+import org.elsveys.service.FileService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePartEvent;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Non-blocking counterparts of the upload and download endpoints, served by {@code ReactiveFileServer}.
+ *
+ * File content moves through {@link DataBufferUtils} on an {@code AsynchronousFileChannel}, one pooled
+ * buffer at a time and only as fast as the other side consumes it. Repository calls still block, so
+ * they are moved to the bounded elastic scheduler and never run on the event loop. Authentication and
+ * request limits are applied before the routes by {@link ReactiveRequestFilter}.
+ */
+@Component
+@ConditionalOnProperty(name = "file.reactive.enabled", havingValue = "true")
+public class ReactiveFileHandler {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    public RouterFunction<ServerResponse> routes() {
+        return RouterFunctions.route()
+                .GET("/api/files/download/{fileId}", this::download)
+                .POST("/api/files/upload", this::upload)
+                .build();
+    }
+
+    Mono<ServerResponse> download(ServerRequest request) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return Mono.fromCallable(() -> {
+                    FileMetadata metadata = fileService.getFileMetadata(Long.valueOf(request.pathVariable("fileId")));
+                    Path path = Paths.get(metadata.getFilePath());
+                    return new StoredFile(metadata, path, Files.size(path));
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(file -> {
+                    // The read lock is taken when the body is subscribed and held until it completes, fails
+                    // or is cancelled, so the content cannot be replaced while it is being sent.
+                    Flux<DataBuffer> content = Flux.usingWhen(readLease(file.metadata()),
+                                    lease -> DataBufferUtils.read(file.path(), bufferFactory, BUFFER_SIZE),
+                                    lease -> Mono.fromRunnable(lease::close))
+                            .doFinally(signal -> record("stream-download", sample, signal == SignalType.ON_COMPLETE));
+                    return ServerResponse.ok()
+                            .contentType(FileController.getMediaType(file.metadata().getType()))
+                            .contentLength(file.size())
+                            .headers(headers -> headers.setContentDispositionFormData("attachment", file.metadata().getName()))
+                            .body(BodyInserters.fromDataBuffers(content));
+                })
+                .onErrorResume(e -> {
+                    record("stream-download", sample, false);
+                    return badRequest(e);
+                });
+    }
+
+    /**
+     * Takes the read lock of a file whose headers were already prepared, failing if its content was
+     * replaced in the meantime.
+     */
+    private Mono<FileLockTable.Lease> readLease(FileMetadata expected) {
+        return Mono.fromCallable(() -> {
+                    FileLockTable.Lease lease = fileLockTable.readLease(expected.getFileId());
+                    try {
+                        FileMetadata current = fileService.getFileMetadata(expected.getFileId());
+                        if (!Objects.equals(current.getContentVersion(), expected.getContentVersion())) {
+                            throw new RuntimeException("File was changed during download");
+                        }
+                        return lease;
+                    } catch (RuntimeException e) {
+                        lease.close();
+                        throw e;
+                    }
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnDiscard(FileLockTable.Lease.class, FileLockTable.Lease::close);
+    }
+
+    Mono<ServerResponse> upload(ServerRequest request) {
+        UserPrincipal principal = (UserPrincipal) request.attributes().get(ReactiveRequestFilter.PRINCIPAL_ATTRIBUTE);
+        Timer.Sample sample = Timer.start(meterRegistry);
+
+        // Part events are consumed as they arrive, so the file never sits in memory or in a temp file.
+        return request.bodyToFlux(PartEvent.class)
+                .windowUntil(PartEvent::isLast)
+                .concatMap(part -> part.switchOnFirst((first, events) -> {
+                    if (first.get() instanceof FilePartEvent filePart && "file".equals(filePart.name())) {
+                        return store(filePart.filename(), events.map(PartEvent::content), principal);
+                    }
+                    return events.doOnNext(event -> DataBufferUtils.release(event.content())).then(Mono.empty());
+                }))
+                .next()
+                .switchIfEmpty(Mono.error(() -> new RuntimeException("No file provided")))
+                .flatMap(metadata -> {
+                    record("stream-upload", sample, true);
+                    return ServerResponse.ok().bodyValue(metadata);
+                })
+                .onErrorResume(e -> {
+                    record("stream-upload", sample, false);
+                    return badRequest(e);
+                });
+    }
+
+    private Mono<FileMetadata> store(String originalName, Flux<DataBuffer> content, UserPrincipal principal) {
+        if (originalName == null || originalName.isBlank() || !FileService.isValidName(originalName)) {
+            return Mono.error(new RuntimeException("Invalid file name"));
+        }
+        return Mono.fromCallable(() -> fileService.reserveUploadPath(originalName, principal.getUserId()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(path -> Mono.usingWhen(
+                        // Written next to its final name and renamed, so a half-received body is never visible.
+                        Mono.fromCallable(() -> FileService.createPartFile(path)).subscribeOn(Schedulers.boundedElastic()),
+                        part -> DataBufferUtils.write(content, part, StandardOpenOption.WRITE)
+                                .then(Mono.fromCallable(() -> {
+                                    Files.move(part, path, StandardCopyOption.ATOMIC_MOVE);
+                                    try {
+                                        return fileService.saveUploadedFile(originalName, path, Files.size(path),
+                                                principal.getUserId(), principal.getUsername());
+                                    } catch (RuntimeException e) {
+                                        Files.deleteIfExists(path);
+                                        throw e;
+                                    }
+                                }).subscribeOn(Schedulers.boundedElastic())),
+                        part -> Mono.fromCallable(() -> Files.deleteIfExists(part)).subscribeOn(Schedulers.boundedElastic())));
+    }
+
+    private Mono<ServerResponse> badRequest(Throwable e) {
+        return ServerResponse.badRequest()
+                .contentType(MediaType.TEXT_PLAIN)
+                .bodyValue(String.valueOf(e.getMessage()));
+    }
+
+    private void record(String operation, Timer.Sample sample, boolean success) {
+        sample.stop(Timer.builder("files.operation")
+                .tag("operation", operation)
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry));
+    }
+
+    private record StoredFile(FileMetadata metadata, Path path, long size) {
+    }
+}
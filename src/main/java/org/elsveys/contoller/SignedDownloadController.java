@@ -0,0 +1,76 @@
+package org.elsveys.contoller;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.elsveys.security.DownloadUrlSigner;
+import org.elsveys.service.FileService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+@RestController
+@RequestMapping("/api/public")
+@CrossOrigin(origins = "*")
+public class SignedDownloadController {
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private DownloadUrlSigner downloadUrlSigner;
+
+    @GetMapping("/download")
+    public void download(
+            @RequestParam("f") long fileId,
+            @RequestParam("v") long contentVersion,
+            @RequestParam("e") long expiresAt,
+            @RequestParam("sig") String signature,
+            HttpServletResponse response) throws IOException {
+        long now = System.currentTimeMillis() / 1000;
+        if (!downloadUrlSigner.verify(fileId, contentVersion, expiresAt, signature, now)) {
+            writeError(response, HttpStatus.FORBIDDEN, "Invalid or expired link");
+            return;
+        }
+
+        // No token check; the metadata lookup is normally served from the second-level cache.
+        // Headers are sent and the body streamed under the file's read lock, so an update cannot tear it.
+        boolean served;
+        try {
+            served = fileService.streamContent(fileId, contentVersion, metadata -> {
+                response.setContentType(FileController.getMediaType(metadata.getType()).toString());
+                if (metadata.getSize() != null) {
+                    response.setContentLengthLong(metadata.getSize());
+                }
+                response.setHeader(HttpHeaders.CACHE_CONTROL,
+                        CacheControl.maxAge(Duration.ofSeconds(expiresAt - now)).cachePublic().getHeaderValue());
+                response.setHeader(HttpHeaders.ETAG, "\"" + signature + "\"");
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(metadata.getName(), StandardCharsets.UTF_8).build().toString());
+            }, response.getOutputStream());
+        } catch (IOException | RuntimeException e) {
+            if (response.isCommitted()) {
+                throw e;
+            }
+            response.reset();
+            writeError(response, HttpStatus.BAD_REQUEST, String.valueOf(e.getMessage()));
+            return;
+        }
+        if (!served) {
+            writeError(response, HttpStatus.GONE, "File has changed or was removed");
+        }
+    }
+
+    private static void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        // The output stream, not the writer: streamContent may already have opened it.
+        response.getOutputStream().write(message.getBytes(StandardCharsets.UTF_8));
+    }
+}
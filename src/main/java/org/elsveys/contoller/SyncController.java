@@ -1,59 +1,149 @@
 package org.elsveys.contoller;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.elsveys.jfr.FileOperationEvent;
 import org.elsveys.model.FileMetadata;
+import org.elsveys.security.UserPrincipal;
 import org.elsveys.service.AuthService;
 import org.elsveys.service.FileService;
+import org.elsveys.service.SyncApplyService;
+import org.elsveys.service.SyncManifest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/sync")
 @CrossOrigin(origins = "*")
 public class SyncController {
 
+    private static final int MANIFEST_BUFFER_SIZE = 64 * 1024;
+
     @Autowired
     private FileService fileService;
 
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private SyncApplyService syncApplyService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     @PostMapping("/compare")
     public ResponseEntity<?> compareFiles(
             @RequestBody Map<String, Object> payload,
             @RequestHeader("Authorization") String authHeader) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("sync-compare");
+        SyncDiff diff = null;
         try {
             @SuppressWarnings("unchecked")
             List<String> localFiles = (List<String>) payload.get("localFiles");
 
-            List<FileMetadata> allRemoteFiles = fileService.listAllFiles();
-
-            List<String> remoteFileNames = allRemoteFiles.stream()
-                    .map(FileMetadata::getName)
-                    .collect(Collectors.toList());
-
-            List<String> toUpload = localFiles.stream()
-                    .filter(name -> !remoteFileNames.contains(name))
-                    .collect(Collectors.toList());
-
-            List<String> toDownload = remoteFileNames.stream()
-                    .filter(name -> !localFiles.contains(name))
-                    .collect(Collectors.toList());
+            diff = new SyncDiff(event.db(fileService::listAllFiles));
+            localFiles.forEach(diff::addLocal);
 
             Map<String, Object> result = new HashMap<>();
-            result.put("toUpload", toUpload);
-            result.put("toDownload", toDownload);
+            result.put("toUpload", diff.toUpload);
+            result.put("toDownload", diff.toDownload());
 
+            recordCompare("json", sample, event, diff, true);
             return ResponseEntity.ok(result);
         } catch (Exception e) {
+            recordCompare("json", sample, event, diff, false);
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
 
+    @PostMapping(value = "/compare", consumes = SyncManifest.MEDIA_TYPE)
+    public void compareFilesManifest(
+            @RequestHeader("Authorization") String authHeader,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("sync-compare");
+        SyncDiff diff = null;
+        try {
+            diff = new SyncDiff(event.db(fileService::listAllFiles));
+
+            // Local names are matched as they are decoded instead of binding the whole payload first.
+            InputStream in = request.getInputStream();
+            if (isGzip(request.getHeader(HttpHeaders.CONTENT_ENCODING))) {
+                in = new GZIPInputStream(in, MANIFEST_BUFFER_SIZE);
+            }
+            SyncManifest.Reader reader = new SyncManifest.Reader(in);
+            for (String name = reader.next(); name != null; name = reader.next()) {
+                diff.addLocal(name);
+            }
+            event.addBytes(Math.max(0, request.getContentLengthLong()));
+        } catch (Exception e) {
+            recordCompare("manifest", sample, event, diff, false);
+            writeError(response, HttpStatus.BAD_REQUEST, e.getMessage());
+            return;
+        }
+
+        boolean success = false;
+        try {
+            response.setContentType(SyncManifest.MEDIA_TYPE);
+            OutputStream out = response.getOutputStream();
+            if (isGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING))) {
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                out = new GZIPOutputStream(out, MANIFEST_BUFFER_SIZE);
+            }
+
+            SyncManifest.Writer writer = new SyncManifest.Writer(out);
+            writer.writeList(diff.toUpload);
+            writer.writeList(diff.toDownload());
+            if (out instanceof GZIPOutputStream gzip) {
+                gzip.finish();
+            }
+            out.flush();
+            success = true;
+        } finally {
+            recordCompare("manifest", sample, event, diff, success);
+        }
+    }
+
+    @PostMapping(value = "/apply", consumes = SyncApplyService.MEDIA_TYPE)
+    public void applyOperations(
+            @AuthenticationPrincipal UserPrincipal principal,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException, InterruptedException {
+        response.setContentType("application/x-ndjson");
+        try {
+            syncApplyService.apply(request.getInputStream(), response.getOutputStream(),
+                    principal.getUserId(), principal.getUsername());
+        } catch (RejectedExecutionException e) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            writeError(response, HttpStatus.SERVICE_UNAVAILABLE, "Too many sync operations in progress");
+        }
+    }
+
     @GetMapping("/remote-files")
     public ResponseEntity<?> getRemoteFiles(@RequestHeader("Authorization") String authHeader) {
         try {
@@ -63,4 +153,60 @@ public class SyncController {
             return ResponseEntity.badRequest().body(e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    private void writeError(HttpServletResponse response, HttpStatus status, String message) throws IOException {
+        response.setStatus(status.value());
+        response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        response.getWriter().write(String.valueOf(message));
+    }
+
+    private void recordCompare(String format, Timer.Sample sample, FileOperationEvent event,
+                               SyncDiff diff, boolean success) {
+        event.finish(success);
+        sample.stop(Timer.builder("sync.compare")
+                .tag("format", format)
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry));
+        if (diff != null) {
+            DistributionSummary.builder("sync.compare.entries")
+                    .tag("format", format)
+                    .register(meterRegistry)
+                    .record(diff.localCount);
+        }
+    }
+
+    private boolean isGzip(String encodingHeader) {
+        return encodingHeader != null && encodingHeader.toLowerCase().contains("gzip");
+    }
+
+    private static class SyncDiff {
+        private final List<String> remoteNames;
+        private final Set<String> remoteLookup;
+        private final Set<String> matched = new HashSet<>();
+        private final List<String> toUpload = new ArrayList<>();
+        private int localCount;
+
+        SyncDiff(List<FileMetadata> remoteFiles) {
+            remoteNames = remoteFiles.stream()
+                    .map(FileMetadata::getName)
+                    .collect(Collectors.toList());
+            remoteLookup = new HashSet<>(remoteNames);
+        }
+
+        void addLocal(String name) {
+            localCount++;
+            if (remoteLookup.contains(name)) {
+                matched.add(name);
+            } else {
+                toUpload.add(name);
+            }
+        }
+
+        List<String> toDownload() {
+            return remoteNames.stream()
+                    .filter(name -> !matched.contains(name))
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.elsveys.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+/**
+ * Flight Recorder event covering one file operation. The event duration is the whole operation;
+ * storage and database time are accumulated separately so a slow request can be attributed to
+ * disk, the database or neither (GC, locks, network) when read next to the JDK's own events.
+ */
+@Name(FileOperationEvent.NAME)
+@Label("File Operation")
+@Category({"FileManager", "Files"})
+@Description("Upload, download, update, delete, list and sync compare operations")
+@StackTrace(false)
+public class FileOperationEvent extends Event {
+
+    public static final String NAME = "org.elsveys.FileOperation";
+
+    @Label("Operation")
+    String operation;
+
+    @Label("File Id")
+    long fileId;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Storage Time")
+    @Timespan
+    long storageTime;
+
+    @Label("Database Time")
+    @Timespan
+    long dbTime;
+
+    @Label("Success")
+    boolean success;
+
+    @FunctionalInterface
+    public interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+
+    public static FileOperationEvent start(String operation) {
+        FileOperationEvent event = new FileOperationEvent();
+        event.operation = operation;
+        event.begin();
+        return event;
+    }
+
+    public <T> T db(Supplier<T> call) {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            dbTime += System.nanoTime() - start;
+        }
+    }
+
+    public <T> T storage(IoSupplier<T> call) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            storageTime += System.nanoTime() - start;
+        }
+    }
+
+    public void setFileId(Long fileId) {
+        this.fileId = fileId != null ? fileId : 0;
+    }
+
+    public void addBytes(long bytes) {
+        this.bytes += bytes;
+    }
+
+    public void finish(boolean success) {
+        end();
+        if (shouldCommit()) {
+            this.success = success;
+            commit();
+        }
+    }
+}
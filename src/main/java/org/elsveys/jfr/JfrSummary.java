@@ -0,0 +1,132 @@
+package org.elsveys.jfr;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summarizes the {@link FileOperationEvent}s of a recording into per-operation latency percentiles,
+ * average storage and database time, and transferred bytes.
+ *
+ * Usage: {@code java -cp target/classes org.elsveys.jfr.JfrSummary recording.jfr}
+ */
+public class JfrSummary {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: JfrSummary <recording.jfr>");
+            System.exit(2);
+        }
+        print(summarize(Path.of(args[0])), System.out);
+    }
+
+    public static Map<String, OperationStats> summarize(Path recording) throws IOException {
+        Map<String, OperationStats> stats = new TreeMap<>();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (!FileOperationEvent.NAME.equals(event.getEventType().getName())) {
+                    continue;
+                }
+                stats.computeIfAbsent(event.getString("operation"), OperationStats::new).add(event);
+            }
+        }
+        return stats;
+    }
+
+    public static void print(Map<String, OperationStats> stats, PrintStream out) {
+        out.printf("%-14s %7s %6s %10s %10s %10s %10s %10s %10s %12s%n",
+                "operation", "count", "errors", "p50 ms", "p90 ms", "p99 ms", "max ms",
+                "storage ms", "db ms", "bytes");
+        for (OperationStats s : stats.values()) {
+            out.printf("%-14s %7d %6d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f %12d%n",
+                    s.getOperation(), s.getCount(), s.getErrors(),
+                    millis(s.percentile(50)), millis(s.percentile(90)), millis(s.percentile(99)),
+                    millis(s.percentile(100)), millis(s.getAverageStorageNanos()),
+                    millis(s.getAverageDbNanos()), s.getBytes());
+        }
+    }
+
+    private static double millis(double nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    public static class OperationStats {
+        private final String operation;
+        private long[] durations = new long[64];
+        private int count;
+        private int errors;
+        private long storageNanos;
+        private long dbNanos;
+        private long bytes;
+        private boolean sorted;
+
+        OperationStats(String operation) {
+            this.operation = operation;
+        }
+
+        void add(RecordedEvent event) {
+            if (count == durations.length) {
+                durations = Arrays.copyOf(durations, count * 2);
+            }
+            durations[count++] = event.getDuration().toNanos();
+            sorted = false;
+            if (!event.getBoolean("success")) {
+                errors++;
+            }
+            storageNanos += toNanos(event.getDuration("storageTime"));
+            dbNanos += toNanos(event.getDuration("dbTime"));
+            bytes += event.getLong("bytes");
+        }
+
+        /**
+         * Nearest-rank percentile of the operation duration in nanoseconds.
+         */
+        public long percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(durations, 0, count);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(p / 100.0 * count);
+            return durations[Math.max(0, Math.min(count, rank) - 1)];
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public double getAverageStorageNanos() {
+            return count == 0 ? 0 : (double) storageNanos / count;
+        }
+
+        public double getAverageDbNanos() {
+            return count == 0 ? 0 : (double) dbNanos / count;
+        }
+
+        private static long toNanos(Duration duration) {
+            return duration != null ? duration.toNanos() : 0;
+        }
+    }
+}
@@ -1,11 +1,21 @@
 package org.elsveys.model;
 
 import jakarta.persistence.*;
+import org.elsveys.config.MetadataCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import java.time.LocalDateTime;
 
 
 @Entity
-@Table(name = "file_metadata")
+@Table(name = "file_metadata", indexes = {
+        @Index(name = "idx_file_metadata_uploader_name", columnList = "uploader_id, name"),
+        @Index(name = "idx_file_metadata_type", columnList = "type"),
+        @Index(name = "idx_file_metadata_modified", columnList = "modified_date")
+})
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = MetadataCacheConfig.FILE_METADATA_REGION)
 public class FileMetadata {
 
     @Id
@@ -43,10 +53,26 @@ public class FileMetadata {
     @Column(name = "editor_name", length = 100)
     private String editorName;
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "mime_type", length = 100)
+    private String mimeType;
+
+    /**
+     * Incremented each time the stored content is replaced. Post-upload processing carries the value it
+     * was queued for and only writes its result while the file still holds that content.
+     */
+    @Column(name = "content_version")
+    private Long contentVersion;
+
     @PrePersist
     protected void onCreate() {
         createdDate = LocalDateTime.now();
         modifiedDate = LocalDateTime.now();
+        if (contentVersion == null) {
+            contentVersion = 0L;
+        }
     }
 
     @PreUpdate
@@ -143,4 +169,40 @@ public class FileMetadata {
     public void setEditorName(String editorName) {
         this.editorName = editorName;
     }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Rows stored before content versions existed read as version 0.
+     */
+    public Long getContentVersion() {
+        return contentVersion != null ? contentVersion : 0L;
+    }
+
+    public void setContentVersion(Long contentVersion) {
+        this.contentVersion = contentVersion;
+    }
+
+    /**
+     * Marks the content as replaced: bumps {@link #getContentVersion()} and clears what was derived from the old content.
+     */
+    public void contentReplaced() {
+        contentVersion = getContentVersion() + 1;
+        contentHash = null;
+        mimeType = null;
+    }
 }
\ No newline at end of file
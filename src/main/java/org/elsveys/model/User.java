@@ -2,12 +2,16 @@ package org.elsveys.model;
 
 
 import jakarta.persistence.*;
-
+import org.elsveys.config.MetadataCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 
 import java.time.LocalDateTime;
 
 @Entity
 @Table(name = "users")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = MetadataCacheConfig.USER_REGION)
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -25,6 +29,12 @@ public class User {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    @Column(name = "used_bytes")
+    private Long usedBytes;
+
+    @Column(name = "quota_bytes")
+    private Long quotaBytes;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
@@ -43,4 +53,10 @@ public class User {
     public void setEmail(String email) { this.email = email; }
 
     public LocalDateTime getCreatedAt() { return createdAt; }
+
+    public Long getUsedBytes() { return usedBytes; }
+    public void setUsedBytes(Long usedBytes) { this.usedBytes = usedBytes; }
+
+    public Long getQuotaBytes() { return quotaBytes; }
+    public void setQuotaBytes(Long quotaBytes) { this.quotaBytes = quotaBytes; }
 }
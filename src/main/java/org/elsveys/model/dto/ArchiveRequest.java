@@ -0,0 +1,10 @@
+package org.elsveys.model.dto;
+
+import java.util.List;
+
+public class ArchiveRequest {
+    private List<Long> fileIds;
+
+    public List<Long> getFileIds() { return fileIds; }
+    public void setFileIds(List<Long> fileIds) { this.fileIds = fileIds; }
+}
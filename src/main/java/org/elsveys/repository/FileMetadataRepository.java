@@ -1,14 +1,74 @@
 package org.elsveys.repository;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.elsveys.config.MetadataCacheConfig;
 import org.elsveys.model.FileMetadata;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
 
 @Repository
 public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long> {
     List<FileMetadata> findByUploaderId(Long uploaderId);
+    boolean existsByUploaderIdAndName(Long uploaderId, String name);
     List<FileMetadata> findByTypeIn(List<String> types);
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = MetadataCacheConfig.FILE_LISTING_REGION)
+    })
     List<FileMetadata> findAllByOrderByModifiedDateAsc();
+
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = MetadataCacheConfig.FILE_LISTING_REGION)
+    })
     List<FileMetadata> findAllByOrderByModifiedDateDesc();
+
+    @Query("select f.uploaderId, sum(f.size) from FileMetadata f group by f.uploaderId")
+    List<Object[]> sumSizeByUploader();
+
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select f from FileMetadata f where f.fileId = :fileId")
+    Optional<FileMetadata> findByIdForUpdate(@Param("fileId") Long fileId);
+
+    // The two updates below go through the locked entity instead of a bulk update: a bulk update makes
+    // Hibernate evict the whole second-level cache region, this refreshes only the changed entry.
+
+    /**
+     * Sets the content hash if the file still holds the content of {@code contentVersion}.
+     */
+    @Transactional
+    default int updateContentHash(Long fileId, Long contentVersion, String hash) {
+        return findByIdForUpdate(fileId)
+                .filter(metadata -> Objects.equals(metadata.getContentVersion(), contentVersion))
+                .map(metadata -> {
+                    metadata.setContentHash(hash);
+                    return 1;
+                })
+                .orElse(0);
+    }
+
+    /**
+     * Sets the MIME type if the file still holds the content of {@code contentVersion}.
+     */
+    @Transactional
+    default int updateMimeType(Long fileId, Long contentVersion, String mimeType) {
+        return findByIdForUpdate(fileId)
+                .filter(metadata -> Objects.equals(metadata.getContentVersion(), contentVersion))
+                .map(metadata -> {
+                    metadata.setMimeType(mimeType);
+                    return 1;
+                })
+                .orElse(0);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package org.elsveys.repository;
+
+import org.elsveys.model.FileProcessingTask;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface FileProcessingTaskRepository extends JpaRepository<FileProcessingTask, Long> {
+
+    List<FileProcessingTask> findByStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+            FileProcessingTask.Status status, LocalDateTime now, Pageable pageable);
+
+    /**
+     * Takes a due task by pushing its next attempt out to the lease time. Returns 0 when another
+     * worker already holds it or it is not due yet.
+     */
+    @Transactional
+    @Modifying
+    @Query("update FileProcessingTask t set t.nextAttemptAt = :leaseUntil " +
+            "where t.taskId = :taskId and t.status = :status and t.nextAttemptAt <= :now")
+    int claim(@Param("taskId") Long taskId, @Param("status") FileProcessingTask.Status status,
+              @Param("now") LocalDateTime now, @Param("leaseUntil") LocalDateTime leaseUntil);
+}
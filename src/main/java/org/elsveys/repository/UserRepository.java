@@ -2,11 +2,30 @@ package org.elsveys.repository;
 
 import org.elsveys.model.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    @Query("select u.userId, u.quotaBytes from User u where u.quotaBytes is not null")
+    List<Object[]> findQuotaOverrides();
+
+    /**
+     * Updated through the entity rather than a bulk update, which would evict every cached user.
+     */
+    @Transactional
+    default int updateUsedBytes(Long userId, long usedBytes) {
+        return findById(userId)
+                .map(user -> {
+                    user.setUsedBytes(usedBytes);
+                    return 1;
+                })
+                .orElse(0);
+    }
 }
\ No newline at end of file
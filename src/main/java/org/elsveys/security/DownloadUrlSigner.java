@@ -0,0 +1,76 @@
+package org.elsveys.security;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+@Component
+public class DownloadUrlSigner {
+
+    public static final String DOWNLOAD_PATH = "/api/public/download";
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    @Value("${download.signing.secret:${jwt.secret}}")
+    private String signingSecret;
+
+    @Value("${download.url.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${download.url.granularity-seconds:60}")
+    private long granularitySeconds;
+
+    private SecretKeySpec key;
+
+    @PostConstruct
+    void init() {
+        key = new SecretKeySpec(signingSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+    }
+
+    public long nextExpiry(long nowSeconds) {
+        // Rounding the expiry up means repeated requests for one file get the same URL, so a proxy can cache it.
+        long expiresAt = nowSeconds + ttlSeconds;
+        return granularitySeconds > 1
+                ? ((expiresAt + granularitySeconds - 1) / granularitySeconds) * granularitySeconds
+                : expiresAt;
+    }
+
+    /**
+     * The link names one version of one file's content, so it stops working once that content is replaced
+     * or the file is deleted, even if another file later takes the same name and size.
+     */
+    public String createUrl(long fileId, long contentVersion, long expiresAt) {
+        return DOWNLOAD_PATH
+                + "?f=" + fileId
+                + "&v=" + contentVersion
+                + "&e=" + expiresAt
+                + "&sig=" + sign(fileId, contentVersion, expiresAt);
+    }
+
+    public boolean verify(long fileId, long contentVersion, long expiresAt, String signature, long nowSeconds) {
+        if (expiresAt <= nowSeconds || signature == null) {
+            return false;
+        }
+        byte[] expected = sign(fileId, contentVersion, expiresAt).getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(expected, signature.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private String sign(long fileId, long contentVersion, long expiresAt) {
+        String payload = fileId + "\n" + contentVersion + '\n' + expiresAt;
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -4,6 +4,8 @@ import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -17,6 +19,8 @@ import java.util.ArrayList;
 @Component
 public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
+    private static final Logger log = LoggerFactory.getLogger(JwtAuthenticationFilter.class);
+
     @Autowired
     private JwtTokenProvider tokenProvider;
 
@@ -26,39 +30,29 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         String authHeader = request.getHeader("Authorization");
 
-        System.out.println("=== JWT Filter Debug ===");
-        System.out.println("Request URI: " + request.getRequestURI());
-        System.out.println("Auth Header: " + authHeader);
-
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
-            System.out.println("Token extracted: " + token.substring(0, Math.min(20, token.length())) + "...");
 
             try {
-                if (tokenProvider.validateToken(token)) {
-                    Long userId = tokenProvider.getUserIdFromToken(token);
-                    String username = tokenProvider.getUsernameFromToken(token);
-
-                    System.out.println("Token valid - UserID: " + userId + ", Username: " + username);
+                UserPrincipal principal = tokenProvider.resolvePrincipal(token);
+                if (principal != null) {
+                    log.debug("Authenticated user {} ({}) for {}",
+                            principal.getUsername(), principal.getUserId(), request.getRequestURI());
 
                     UsernamePasswordAuthenticationToken authToken =
                             new UsernamePasswordAuthenticationToken(
-                                    userId,
+                                    principal,
                                     null,
                                     new ArrayList<>()
                             );
                     authToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
                     SecurityContextHolder.getContext().setAuthentication(authToken);
-                    System.out.println("Authentication set in context");
                 } else {
-                    System.out.println("Token validation failed");
+                    log.debug("Rejected invalid token for {}", request.getRequestURI());
                 }
             } catch (Exception e) {
-                System.err.println("JWT Filter Exception: " + e.getMessage());
-                e.printStackTrace();
+                log.warn("Failed to authenticate request to {}: {}", request.getRequestURI(), e.getMessage());
             }
-        } else {
-            System.out.println("No valid auth header found");
         }
 
         filterChain.doFilter(request, response);
@@ -2,12 +2,17 @@ package org.elsveys.security;
 
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Component
 public class JwtTokenProvider {
@@ -18,9 +23,46 @@ public class JwtTokenProvider {
     @Value("${jwt.expiration}")
     private long jwtExpiration;
 
-    private SecretKey getSigningKey() {
-        byte[] keyBytes = jwtSecret.getBytes(StandardCharsets.UTF_8);
-        return Keys.hmacShaKeyFor(keyBytes);
+    @Value("${jwt.cache.max-entries:10000}")
+    private int cacheMaxEntries;
+
+    @Value("${jwt.cache.revoked-max-entries:10000}")
+    private int revokedMaxEntries;
+
+    private static final int CACHE_STRIPES = 16;
+
+    private SecretKey signingKey;
+
+    private JwtParser parser;
+
+    private StripedLruCache<String, UserPrincipal> verifiedTokens;
+
+    /**
+     * Token digest to the token's exp. Entries are never evicted while the token could still verify;
+     * expired ones are purged when the map reaches {@code revokedMaxEntries}.
+     */
+    private final ConcurrentHashMap<String, Long> revokedTokens = new ConcurrentHashMap<>();
+
+    /**
+     * User id to a cutoff for revocations that did not fit in {@link #revokedTokens}. Until {@code until},
+     * every token of that user issued at or before {@code issuedBefore} is rejected, so an unrecorded
+     * revocation still fails closed without logging out anyone else.
+     */
+    private final ConcurrentHashMap<Long, RevocationCutoff> revokedBefore = new ConcurrentHashMap<>();
+
+    private record RevocationCutoff(long issuedBefore, long until) {
+        RevocationCutoff merge(RevocationCutoff other) {
+            return new RevocationCutoff(Math.max(issuedBefore, other.issuedBefore), Math.max(until, other.until));
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        parser = Jwts.parserBuilder()
+                .setSigningKey(signingKey)
+                .build();
+        verifiedTokens = new StripedLruCache<>(cacheMaxEntries, CACHE_STRIPES);
     }
 
     public String generateToken(Long userId, String username) {
@@ -32,39 +74,112 @@ public class JwtTokenProvider {
                 .claim("username", username)
                 .setIssuedAt(now)
                 .setExpiration(expiryDate)
-                .signWith(getSigningKey(), SignatureAlgorithm.HS512)
+                .signWith(signingKey, SignatureAlgorithm.HS512)
                 .compact();
     }
 
-    public Long getUserIdFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    public UserPrincipal parseToken(String token) {
+        String digest = digest(token);
+        long now = System.currentTimeMillis();
+
+        // A token that verified before is served from the cache until its exp, skipping the HMAC and JSON work.
+        // Revocation removes the entry, and a put racing with it is caught by the re-check below.
+        UserPrincipal cached = verifiedTokens.get(digest, now);
+        if (cached != null) {
+            return cached;
+        }
 
-        return Long.parseLong(claims.getSubject());
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        Long userId = Long.parseLong(claims.getSubject());
+        long issuedAt = issuedAt(claims);
+        if (isRevoked(digest, userId, issuedAt, now)) {
+            throw new JwtException("Token has been revoked");
+        }
+        UserPrincipal principal = new UserPrincipal(userId, claims.get("username", String.class));
+        if (claims.getExpiration() != null) {
+            verifiedTokens.put(digest, principal, claims.getExpiration().getTime());
+            // A revokeToken that ran after the check above may have removed the entry before this put.
+            if (isRevoked(digest, userId, issuedAt, now)) {
+                verifiedTokens.remove(digest);
+                throw new JwtException("Token has been revoked");
+            }
+        }
+        return principal;
     }
 
-    public String getUsernameFromToken(String token) {
-        Claims claims = Jwts.parserBuilder()
-                .setSigningKey(getSigningKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+    public void revokeToken(String token) {
+        String digest = digest(token);
+        long now = System.currentTimeMillis();
+        Claims claims;
+        try {
+            claims = parser.parseClaimsJws(token).getBody();
+        } catch (ExpiredJwtException e) {
+            verifiedTokens.remove(digest);
+            return;
+        }
+        long expiresAt = claims.getExpiration() != null ? claims.getExpiration().getTime() : Long.MAX_VALUE;
+        // Remember the revocation as long as the token could still verify.
+        if (revokedTokens.size() >= revokedMaxEntries) {
+            revokedTokens.values().removeIf(exp -> exp <= now);
+        }
+        if (revokedTokens.size() < revokedMaxEntries || revokedTokens.containsKey(digest)) {
+            revokedTokens.put(digest, expiresAt);
+        } else {
+            // The cutoff is the token's own iat, in the same whole seconds it is compared against, so only this
+            // token and the user's older ones are rejected.
+            if (revokedBefore.size() >= revokedMaxEntries) {
+                revokedBefore.values().removeIf(cutoff -> cutoff.until() <= now);
+            }
+            revokedBefore.merge(Long.parseLong(claims.getSubject()),
+                    new RevocationCutoff(issuedAt(claims), expiresAt), RevocationCutoff::merge);
+            verifiedTokens.clear();
+        }
+        verifiedTokens.remove(digest);
+    }
 
-        return claims.get("username", String.class);
+    private boolean isRevoked(String digest, Long userId, long issuedAt, long now) {
+        Long expiresAt = revokedTokens.get(digest);
+        if (expiresAt != null && expiresAt > now) {
+            return true;
+        }
+        RevocationCutoff cutoff = revokedBefore.get(userId);
+        return cutoff != null && cutoff.until() > now && issuedAt <= cutoff.issuedBefore();
     }
 
-    public boolean validateToken(String token) {
+    private static long issuedAt(Claims claims) {
+        return claims.getIssuedAt() != null ? claims.getIssuedAt().getTime() : Long.MIN_VALUE;
+    }
+
+    public void invalidateCache() {
+        verifiedTokens.clear();
+    }
+
+    public UserPrincipal resolvePrincipal(String token) {
         try {
-            Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token);
-            return true;
+            return parseToken(token);
         } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            return null;
+        }
+    }
+
+    public Long getUserIdFromToken(String token) {
+        return parseToken(token).getUserId();
+    }
+
+    public String getUsernameFromToken(String token) {
+        return parseToken(token).getUsername();
+    }
+
+    public boolean validateToken(String token) {
+        return resolvePrincipal(token) != null;
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
-}
\ No newline at end of file
+}
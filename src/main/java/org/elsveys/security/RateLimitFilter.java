@@ -0,0 +1,110 @@
+package org.elsveys.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.elsveys.config.RateLimitProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@Component
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    @Autowired
+    private RateLimitProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private StripedLruCache<String, TokenBucket> buckets;
+
+    @PostConstruct
+    void init() {
+        buckets = new StripedLruCache<>(properties.getMaxKeys(), properties.getStripes());
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !properties.isEnabled();
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        UserPrincipal principal = authentication != null && authentication.getPrincipal() instanceof UserPrincipal p
+                ? p
+                : null;
+
+        long retryAfter = acquire(request.getMethod(), path, principal, request.getRemoteAddr());
+        if (retryAfter > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Too many requests");
+            return;
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * Takes a token from every rule matching the request. Returns the seconds the client has to wait
+     * before retrying, or 0 if the request may go ahead. Also used by the reactive server.
+     */
+    public long acquire(String method, String path, UserPrincipal principal, String remoteAddress) {
+        if (!properties.isEnabled()) {
+            return 0;
+        }
+        List<RateLimitProperties.Rule> rules = properties.getRules();
+
+        for (RateLimitProperties.Rule rule : rules) {
+            if (!matches(rule, method, path)) {
+                continue;
+            }
+
+            long now = System.nanoTime();
+            String key = rule.getName() + '|' + clientKey(rule, principal, remoteAddress);
+            TokenBucket bucket = buckets.computeIfAbsent(key, now, now + properties.getIdleTimeout().toNanos(),
+                    k -> new TokenBucket(rule.getCapacity(), rule.getRefillPerSecond(), now));
+
+            long waitNanos = bucket.tryAcquire(now);
+            if (waitNanos > 0) {
+                meterRegistry.counter("ratelimit.rejected", "rule", rule.getName()).increment();
+                return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+            }
+        }
+        return 0;
+    }
+
+    private boolean matches(RateLimitProperties.Rule rule, String method, String path) {
+        if (rule.getMethod() != null && !rule.getMethod().equalsIgnoreCase(method)) {
+            return false;
+        }
+        return PATH_MATCHER.match(rule.getPath(), path);
+    }
+
+    private String clientKey(RateLimitProperties.Rule rule, UserPrincipal principal, String remoteAddress) {
+        if (rule.getKey() == RateLimitProperties.KeyType.USER && principal != null) {
+            return "u" + principal.getUserId();
+        }
+        return "ip" + remoteAddress;
+    }
+}
@@ -0,0 +1,88 @@
+package org.elsveys.security;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Authentication, rate limiting and upload admission for the reactive server, in the same order and with
+ * the same limits as the servlet filter chain. Buckets and admission capacity are shared with the servlet
+ * filters, so a client gets no extra allowance by switching ports.
+ */
+@Component
+@ConditionalOnProperty(name = "file.reactive.enabled", havingValue = "true")
+public class ReactiveRequestFilter implements WebFilter {
+
+    public static final String PRINCIPAL_ATTRIBUTE = UserPrincipal.class.getName();
+
+    @Autowired
+    private JwtTokenProvider tokenProvider;
+
+    @Autowired
+    private RateLimitFilter rateLimitFilter;
+
+    @Autowired
+    private UploadAdmissionFilter uploadAdmissionFilter;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        String authHeader = request.getHeaders().getFirst(HttpHeaders.AUTHORIZATION);
+        UserPrincipal principal = authHeader != null && authHeader.startsWith("Bearer ")
+                ? tokenProvider.resolvePrincipal(authHeader.substring(7))
+                : null;
+
+        String method = request.getMethod().name();
+        String path = request.getPath().pathWithinApplication().value();
+        long retryAfter = rateLimitFilter.acquire(method, path, principal, remoteAddress(request));
+        if (retryAfter > 0) {
+            return reject(exchange.getResponse(), HttpStatus.TOO_MANY_REQUESTS, retryAfter, "Too many requests");
+        }
+        if (principal == null) {
+            exchange.getResponse().setStatusCode(HttpStatus.UNAUTHORIZED);
+            return exchange.getResponse().setComplete();
+        }
+        exchange.getAttributes().put(PRINCIPAL_ATTRIBUTE, principal);
+
+        if (!uploadAdmissionFilter.appliesTo(method, path)) {
+            return chain.filter(exchange);
+        }
+        UploadAdmission.Ticket ticket = uploadAdmissionFilter.admit(principal.getUserId(),
+                request.getHeaders().getContentLength());
+        if (!ticket.isAdmitted()) {
+            exchange.getResponse().getHeaders().set(HttpHeaders.CONNECTION, "close");
+            return reject(exchange.getResponse(), HttpStatus.SERVICE_UNAVAILABLE, ticket.getRetryAfterSeconds(),
+                    "Upload capacity exhausted, retry later");
+        }
+        return chain.filter(exchange).doFinally(signal -> uploadAdmissionFilter.release(ticket));
+    }
+
+    private static String remoteAddress(ServerHttpRequest request) {
+        InetSocketAddress address = request.getRemoteAddress();
+        if (address == null) {
+            return null;
+        }
+        return address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString();
+    }
+
+    private static Mono<Void> reject(ServerHttpResponse response, HttpStatus status, long retryAfter, String message) {
+        response.setStatusCode(status);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter));
+        response.getHeaders().setContentType(MediaType.TEXT_PLAIN);
+        DataBuffer body = response.bufferFactory().wrap(message.getBytes(StandardCharsets.UTF_8));
+        return response.writeWith(Mono.just(body));
+    }
+}
@@ -0,0 +1,142 @@
+package org.elsveys.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Bounded map split into independently locked LRU segments, with an expiry time per entry.
+ * Lookups on different segments never contend, and each segment evicts its least recently used
+ * entry once it is full, so memory stays bounded no matter how many distinct keys arrive.
+ * Segments use {@link ReentrantLock} rather than monitors so virtual threads waiting on a
+ * segment unmount instead of pinning their carrier.
+ */
+public class StripedLruCache<K, V> {
+
+    private final Segment<K, V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(int maxEntries, int stripes) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, stripes));
+        int perSegment = Math.max(1, maxEntries / stripeCount);
+        segments = new Segment[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            segments[i] = new Segment<>(perSegment);
+        }
+    }
+
+    public V get(K key, long now) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.expiresAt <= now) {
+                segment.remove(key);
+                return null;
+            }
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void put(K key, V value, long expiresAt) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            segment.put(key, new Entry<>(value, expiresAt));
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the live value for the key, creating it when absent or expired, and extends its expiry.
+     */
+    public V computeIfAbsent(K key, long now, long expiresAt, Function<K, V> factory) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.get(key);
+            if (entry == null || entry.expiresAt <= now) {
+                entry = new Entry<>(factory.apply(key), expiresAt);
+                segment.put(key, entry);
+            } else {
+                entry.expiresAt = Math.max(entry.expiresAt, expiresAt);
+            }
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            Entry<V> entry = segment.remove(key);
+            return entry != null ? entry.value : null;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                segment.clear();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+            try {
+                size += segment.size();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.elsveys.security;
+
+import org.elsveys.config.UploadAdmissionProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bookkeeping of uploads that are currently being received.
+ *
+ * Large uploads are admitted only while the in-flight bytes and upload counts, both in total and for
+ * the requesting user, stay under their caps. Small uploads use a separate lane limited by count
+ * only, so they keep flowing while the large lane is saturated. A rejected upload gets a Retry-After
+ * estimate from how many bytes have to drain before it would fit.
+ */
+public class UploadAdmission {
+
+    public static final class Ticket {
+        private final Long userId;
+        private final long bytes;
+        private final boolean small;
+        private final String rejectedBy;
+        private final long retryAfterSeconds;
+
+        private Ticket(Long userId, long bytes, boolean small, String rejectedBy, long retryAfterSeconds) {
+            this.userId = userId;
+            this.bytes = bytes;
+            this.small = small;
+            this.rejectedBy = rejectedBy;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public boolean isAdmitted() { return rejectedBy == null; }
+
+        public boolean isSmall() { return small; }
+
+        public String getRejectedBy() { return rejectedBy; }
+
+        public long getRetryAfterSeconds() { return retryAfterSeconds; }
+    }
+
+    private final UploadAdmissionProperties properties;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Long, long[]> users = new HashMap<>();
+    private long inFlightBytes;
+    private int inFlightUploads;
+    private int inFlightSmallUploads;
+
+    public UploadAdmission(UploadAdmissionProperties properties) {
+        this.properties = properties;
+    }
+
+    /**
+     * Tries to admit an upload of {@code contentLength} bytes, or -1 if the length is unknown.
+     */
+    public Ticket admit(Long userId, long contentLength) {
+        if (contentLength >= 0 && contentLength <= properties.getSmallFileBytes()) {
+            return admitSmall(userId, contentLength);
+        }
+        long bytes = contentLength >= 0 ? contentLength : properties.getUnknownLengthBytes();
+
+        lock.lock();
+        try {
+            long[] user = users.computeIfAbsent(userId, id -> new long[2]);
+            String rejectedBy = null;
+            long excessBytes = 0;
+
+            // A request bigger than a whole budget still gets in once nothing else holds that budget.
+            if (user[1] >= properties.getPerUserMaxUploads()) {
+                rejectedBy = "user-uploads";
+            } else if (user[1] > 0 && user[0] + bytes > properties.getPerUserMaxBytes()) {
+                rejectedBy = "user-bytes";
+                excessBytes = user[0] + bytes - properties.getPerUserMaxBytes();
+            } else if (inFlightUploads >= properties.getMaxUploads()) {
+                rejectedBy = "uploads";
+            } else if (inFlightUploads > 0 && inFlightBytes + bytes > properties.getMaxBytes()) {
+                rejectedBy = "bytes";
+                excessBytes = inFlightBytes + bytes - properties.getMaxBytes();
+            }
+
+            if (rejectedBy != null) {
+                if (user[1] == 0) {
+                    users.remove(userId);
+                }
+                if (excessBytes == 0) {
+                    // Waiting for a slot: roughly the time an average upload in flight needs to finish.
+                    excessBytes = inFlightUploads > 0 ? inFlightBytes / inFlightUploads : 0;
+                }
+                return new Ticket(userId, bytes, false, rejectedBy, retryAfter(excessBytes));
+            }
+
+            user[0] += bytes;
+            user[1]++;
+            inFlightBytes += bytes;
+            inFlightUploads++;
+            return new Ticket(userId, bytes, false, null, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(Ticket ticket) {
+        if (!ticket.isAdmitted()) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (ticket.small) {
+                inFlightSmallUploads--;
+                return;
+            }
+            inFlightBytes -= ticket.bytes;
+            inFlightUploads--;
+            long[] user = users.get(ticket.userId);
+            if (user != null) {
+                user[0] -= ticket.bytes;
+                if (--user[1] == 0) {
+                    users.remove(ticket.userId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightUploads() {
+        lock.lock();
+        try {
+            return inFlightUploads + inFlightSmallUploads;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Ticket admitSmall(Long userId, long bytes) {
+        lock.lock();
+        try {
+            if (inFlightSmallUploads >= properties.getSmallMaxUploads()) {
+                return new Ticket(userId, bytes, true, "small-uploads", 1);
+            }
+            inFlightSmallUploads++;
+            return new Ticket(userId, bytes, true, null, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long retryAfter(long excessBytes) {
+        long drain = Math.max(1, properties.getDrainBytesPerSecond());
+        long seconds = (excessBytes + drain - 1) / drain;
+        return Math.max(1, Math.min(seconds, properties.getMaxRetryAfterSeconds()));
+    }
+}
@@ -0,0 +1,116 @@
+package org.elsveys.security;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.elsveys.config.UploadAdmissionProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Answers uploads that would overload storage with 503 before their body is read.
+ *
+ * Runs ahead of the dispatcher, so a rejected request never reaches multipart parsing or the disk.
+ */
+@Component
+public class UploadAdmissionFilter extends OncePerRequestFilter {
+
+    private static final AntPathMatcher PATH_MATCHER = new AntPathMatcher();
+
+    @Autowired
+    private UploadAdmissionProperties properties;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private UploadAdmission admission;
+
+    @PostConstruct
+    void init() {
+        admission = new UploadAdmission(properties);
+        Gauge.builder("upload.admission.inflight.bytes", admission, UploadAdmission::getInFlightBytes)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("upload.admission.inflight.uploads", admission, UploadAdmission::getInFlightUploads)
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !appliesTo(request.getMethod(), request.getRequestURI().substring(request.getContextPath().length()));
+    }
+
+    /**
+     * Whether requests to this endpoint need admission. The check and the admission itself are shared
+     * with the reactive server.
+     */
+    public boolean appliesTo(String method, String path) {
+        if (!properties.isEnabled()) {
+            return false;
+        }
+        for (String endpoint : properties.getEndpoints()) {
+            int space = endpoint.indexOf(' ');
+            if (endpoint.substring(0, space).equalsIgnoreCase(method)
+                    && PATH_MATCHER.match(endpoint.substring(space + 1), path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Admits an upload of {@code contentLength} bytes (-1 if unknown). An admitted ticket must be released
+     * once the upload is done.
+     */
+    public UploadAdmission.Ticket admit(Long userId, long contentLength) {
+        UploadAdmission.Ticket ticket = admission.admit(userId, contentLength);
+        if (!ticket.isAdmitted()) {
+            meterRegistry.counter("upload.admission.rejected", "reason", ticket.getRejectedBy()).increment();
+        }
+        return ticket;
+    }
+
+    public void release(UploadAdmission.Ticket ticket) {
+        admission.release(ticket);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !(authentication.getPrincipal() instanceof UserPrincipal principal)) {
+            // Left to authorization, which rejects it without reading the body.
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        UploadAdmission.Ticket ticket = admit(principal.getUserId(), request.getContentLengthLong());
+        if (!ticket.isAdmitted()) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(ticket.getRetryAfterSeconds()));
+            response.setHeader(HttpHeaders.CONNECTION, "close");
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Upload capacity exhausted, retry later");
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            release(ticket);
+        }
+    }
+}
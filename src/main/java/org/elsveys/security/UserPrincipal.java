@@ -0,0 +1,20 @@
+package org.elsveys.security;
+
+public class UserPrincipal {
+    private final Long userId;
+    private final String username;
+
+    public UserPrincipal(Long userId, String username) {
+        this.userId = userId;
+        this.username = username;
+    }
+
+    public Long getUserId() { return userId; }
+
+    public String getUsername() { return username; }
+
+    @Override
+    public String toString() {
+        return username;
+    }
+}
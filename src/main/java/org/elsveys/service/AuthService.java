@@ -1,12 +1,15 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.elsveys.model.User;
 import org.elsveys.repository.UserRepository;
 import org.elsveys.security.JwtTokenProvider;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 
+import java.util.function.Supplier;
+
 @Service
 public class AuthService {
 
@@ -14,33 +17,49 @@ public class AuthService {
     private UserRepository userRepository;
 
     @Autowired
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
 
     @Autowired
     private JwtTokenProvider tokenProvider;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
     public String register(String username, String password, String email) {
+        return timed("register", () -> doRegister(username, password, email));
+    }
+
+    public String login(String username, String password) {
+        return timed("login", () -> doLogin(username, password));
+    }
+
+    private String doRegister(String username, String password, String email) {
         if (userRepository.existsByUsername(username)) {
             throw new RuntimeException("Username already exists");
         }
 
         User user = new User();
         user.setUsername(username);
-        user.setPassword(passwordEncoder.encode(password));
+        user.setPassword(passwordHashingService.encode(password));
         user.setEmail(email);
 
         User savedUser = userRepository.save(user);
         return tokenProvider.generateToken(savedUser.getUserId(), username);
     }
 
-    public String login(String username, String password) {
+    private String doLogin(String username, String password) {
         User user = userRepository.findByUsername(username)
                 .orElseThrow(() -> new RuntimeException("Invalid credentials"));
 
-        if (!passwordEncoder.matches(password, user.getPassword())) {
+        if (!passwordHashingService.matches(password, user.getPassword())) {
             throw new RuntimeException("Invalid credentials");
         }
 
+        if (passwordHashingService.needsRehash(user.getPassword())) {
+            user.setPassword(passwordHashingService.encode(password));
+            userRepository.save(user);
+        }
+
         return tokenProvider.generateToken(user.getUserId(), username);
     }
 
@@ -55,4 +74,29 @@ public class AuthService {
     public String getUsernameFromToken(String token) {
         return tokenProvider.getUsernameFromToken(token);
     }
+
+    public void logout(String token) {
+        tokenProvider.revokeToken(token);
+    }
+
+    private String timed(String operation, Supplier<String> action) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            String token = action.get();
+            outcome = "success";
+            return token;
+        } catch (ServiceOverloadedException e) {
+            outcome = "overloaded";
+            throw e;
+        } catch (RuntimeException e) {
+            outcome = "rejected";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("auth.operation")
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,179 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Read/write locks per stored file. Readers of one file share its lock, writers are exclusive, and
+ * each file id gets its own lock entry, so operations on different files never contend. Entries are
+ * reference counted and dropped once the last holder releases them, keeping the table as small as
+ * the number of files currently in use.
+ *
+ * The locks are not owned by a thread, so work that continues elsewhere, such as a streamed download,
+ * can hold one through a {@link Lease} and release it from whichever thread finishes. They are also not
+ * reentrant: a holder must not lock the same file again.
+ *
+ * Acquisitions that had to wait are counted per file so the hottest files can be inspected.
+ */
+@Component
+public class FileLockTable {
+
+    @FunctionalInterface
+    public interface LockedAction<T> {
+        T run() throws IOException;
+    }
+
+    private final Map<Long, LockEntry> locks = new ConcurrentHashMap<>();
+    private final Map<Long, Contention> contention = new ConcurrentHashMap<>();
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${files.lock.max-tracked-files:1000}")
+    private int maxTrackedFiles = 1000;
+
+    public <T> T withReadLock(Long fileId, LockedAction<T> action) throws IOException {
+        return withLock(fileId, false, action);
+    }
+
+    public <T> T withWriteLock(Long fileId, LockedAction<T> action) throws IOException {
+        return withLock(fileId, true, action);
+    }
+
+    /**
+     * Takes the read lock of a file until the returned lease is closed. Closing it again does nothing.
+     */
+    public Lease readLease(Long fileId) {
+        return acquire(fileId, false);
+    }
+
+    /**
+     * Takes the write lock of a file until the returned lease is closed. Closing it again does nothing.
+     */
+    public Lease writeLease(Long fileId) {
+        return acquire(fileId, true);
+    }
+
+    /**
+     * Files whose lock had to be waited for, most contended first.
+     */
+    public List<Map<String, Object>> hotFiles(int limit) {
+        return contention.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<Long, Contention> e) -> e.getValue().waits.sum()).reversed())
+                .limit(limit)
+                .map(e -> {
+                    Map<String, Object> file = new LinkedHashMap<>();
+                    file.put("fileId", e.getKey());
+                    file.put("readWaits", e.getValue().readWaits.sum());
+                    file.put("writeWaits", e.getValue().waits.sum() - e.getValue().readWaits.sum());
+                    file.put("waitMillis", TimeUnit.NANOSECONDS.toMillis(e.getValue().waitNanos.sum()));
+                    return file;
+                })
+                .toList();
+    }
+
+    int activeLocks() {
+        return locks.size();
+    }
+
+    private <T> T withLock(Long fileId, boolean write, LockedAction<T> action) throws IOException {
+        try (Lease lease = acquire(fileId, write)) {
+            return action.run();
+        }
+    }
+
+    private Lease acquire(Long fileId, boolean write) {
+        LockEntry entry = locks.compute(fileId, (id, existing) -> {
+            LockEntry e = existing != null ? existing : new LockEntry();
+            e.holders++;
+            return e;
+        });
+        try {
+            long stamp = write ? entry.lock.tryWriteLock() : entry.lock.tryReadLock();
+            if (stamp == 0) {
+                long start = System.nanoTime();
+                stamp = write ? entry.lock.writeLock() : entry.lock.readLock();
+                recordWait(fileId, write, System.nanoTime() - start);
+            }
+            return new Lease(fileId, entry, stamp);
+        } catch (RuntimeException | Error e) {
+            release(fileId);
+            throw e;
+        }
+    }
+
+    private void release(Long fileId) {
+        locks.computeIfPresent(fileId, (id, e) -> --e.holders == 0 ? null : e);
+    }
+
+    private void recordWait(Long fileId, boolean write, long nanos) {
+        String mode = write ? "write" : "read";
+        Timer.builder("files.lock.wait")
+                .tag("mode", mode)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+
+        Contention stats = contention.get(fileId);
+        if (stats == null) {
+            if (contention.size() >= maxTrackedFiles) {
+                return;
+            }
+            stats = contention.computeIfAbsent(fileId, id -> new Contention());
+        }
+        stats.waits.increment();
+        if (!write) {
+            stats.readWaits.increment();
+        }
+        stats.waitNanos.add(nanos);
+    }
+
+    /**
+     * A held file lock. It may be closed from any thread.
+     */
+    public final class Lease implements AutoCloseable {
+
+        private final Long fileId;
+        private final LockEntry entry;
+        private final long stamp;
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        private Lease(Long fileId, LockEntry entry, long stamp) {
+            this.fileId = fileId;
+            this.entry = entry;
+            this.stamp = stamp;
+        }
+
+        @Override
+        public void close() {
+            if (open.compareAndSet(true, false)) {
+                entry.lock.unlock(stamp);
+                release(fileId);
+            }
+        }
+    }
+
+    private static final class LockEntry {
+        final StampedLock lock = new StampedLock();
+        int holders;
+    }
+
+    private static final class Contention {
+        final LongAdder waits = new LongAdder();
+        final LongAdder readWaits = new LongAdder();
+        final LongAdder waitNanos = new LongAdder();
+    }
+}
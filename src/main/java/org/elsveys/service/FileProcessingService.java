@@ -0,0 +1,288 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.model.FileProcessingTask;
+import org.elsveys.model.FileProcessingTask.Stage;
+import org.elsveys.model.FileProcessingTask.Status;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.repository.FileProcessingTaskRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Post-upload work (content hash, MIME type, line index of text files) that runs after the upload has returned.
+ *
+ * {@link #enqueue} stores a task row in the caller's transaction. Once that transaction commits the
+ * task is handed to the pool of its stage; each stage has its own bounded pool so slow hashing of
+ * large files does not hold up MIME detection. A worker claims a task by leasing it, and failed
+ * attempts are rescheduled with exponential backoff. The scheduled poll picks up retries, tasks
+ * rejected by a full pool, and anything left over from before a restart.
+ */
+@Service
+public class FileProcessingService {
+
+    private static final int SNIFF_BYTES = 512;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ERROR_LENGTH = 500;
+
+    @Autowired
+    private FileProcessingTaskRepository taskRepository;
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private LineIndexService lineIndexService;
+
+    @Autowired
+    @Qualifier("fileHashExecutor")
+    private ExecutorService hashExecutor;
+
+    @Autowired
+    @Qualifier("fileMimeExecutor")
+    private ExecutorService mimeExecutor;
+
+    @Value("${files.processing.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${files.processing.retry-base-ms:1000}")
+    private long retryBaseMillis;
+
+    @Value("${files.processing.lease-seconds:300}")
+    private long leaseSeconds;
+
+    @Value("${files.processing.poll-batch:100}")
+    private int pollBatch;
+
+    /**
+     * Records that a stored file needs processing. Must run inside the transaction that saves its metadata.
+     */
+    public void enqueue(FileMetadata file) {
+        enqueue(file, Stage.HASH);
+    }
+
+    /**
+     * Like {@link #enqueue(FileMetadata)}, for content whose earlier stages were already done while it was written.
+     */
+    public void enqueue(FileMetadata file, Stage firstStage) {
+        FileProcessingTask task = taskRepository.save(
+                new FileProcessingTask(file.getFileId(), file.getContentVersion(), firstStage, LocalDateTime.now()));
+        eventPublisher.publishEvent(new FileStoredEvent(file.getFileId(), task.getTaskId(), firstStage));
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT)
+    public void onFileStored(FileStoredEvent event) {
+        dispatch(event.getTaskId(), event.getStage());
+    }
+
+    @Scheduled(fixedDelayString = "${files.processing.poll-interval-ms:5000}")
+    public void dispatchDueTasks() {
+        for (FileProcessingTask task : taskRepository.findByStatusAndNextAttemptAtLessThanEqualOrderByNextAttemptAt(
+                Status.PENDING, LocalDateTime.now(), PageRequest.of(0, pollBatch))) {
+            dispatch(task.getTaskId(), task.getStage());
+        }
+    }
+
+    private void dispatch(Long taskId, Stage stage) {
+        try {
+            (stage == Stage.MIME ? mimeExecutor : hashExecutor).execute(() -> process(taskId));
+        } catch (RejectedExecutionException e) {
+            // Still pending in the table; the next poll hands it out again.
+            meterRegistry.counter("files.processing.rejected", "stage", stage.name().toLowerCase()).increment();
+        }
+    }
+
+    void process(Long taskId) {
+        LocalDateTime now = LocalDateTime.now();
+        if (taskRepository.claim(taskId, Status.PENDING, now, now.plusSeconds(leaseSeconds)) == 0) {
+            return;
+        }
+        FileProcessingTask task = taskRepository.findById(taskId).orElse(null);
+        if (task == null) {
+            return;
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "success";
+        try {
+            FileMetadata metadata = fileRepository.findById(task.getFileId()).orElse(null);
+            if (metadata == null) {
+                // Deleted before processing finished; nothing left to do.
+                taskRepository.delete(task);
+                outcome = "skipped";
+                return;
+            }
+            if (!Objects.equals(metadata.getContentVersion(), task.getContentVersion())) {
+                // The content was replaced since this task was queued; the task queued with it does the work.
+                taskRepository.delete(task);
+                outcome = "skipped";
+                return;
+            }
+
+            runStage(task.getStage(), metadata);
+
+            Stage next = nextStage(task.getStage(), metadata);
+            if (next != null) {
+                task.setStage(next);
+                task.setAttempts(0);
+                task.setLastError(null);
+                task.setNextAttemptAt(LocalDateTime.now());
+                taskRepository.save(task);
+                dispatch(taskId, next);
+            } else {
+                taskRepository.delete(task);
+            }
+        } catch (Exception e) {
+            outcome = reschedule(task, e);
+        } finally {
+            sample.stop(Timer.builder("files.processing")
+                    .tag("stage", task.getStage().name().toLowerCase())
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    private Stage nextStage(Stage stage, FileMetadata metadata) {
+        if (stage == Stage.HASH) {
+            return Stage.MIME;
+        }
+        if (stage == Stage.MIME && LineIndexService.isText(metadata)) {
+            return Stage.LINE_INDEX;
+        }
+        return null;
+    }
+
+    private String reschedule(FileProcessingTask task, Exception e) {
+        int attempts = task.getAttempts() + 1;
+        task.setAttempts(attempts);
+        String message = String.valueOf(e.getMessage());
+        task.setLastError(message.length() > MAX_ERROR_LENGTH ? message.substring(0, MAX_ERROR_LENGTH) : message);
+        if (attempts >= maxAttempts) {
+            task.setStatus(Status.FAILED);
+        } else {
+            task.setNextAttemptAt(LocalDateTime.now().plus(Duration.ofMillis(retryBaseMillis << (attempts - 1))));
+        }
+        taskRepository.save(task);
+        return task.getStatus() == Status.FAILED ? "failed" : "retry";
+    }
+
+    private void runStage(Stage stage, FileMetadata metadata) throws IOException {
+        Path path = Paths.get(metadata.getFilePath());
+        if (stage == Stage.HASH) {
+            String hash = fileLockTable.withReadLock(metadata.getFileId(), () -> sha256(path));
+            fileRepository.updateContentHash(metadata.getFileId(), metadata.getContentVersion(), hash);
+        } else if (stage == Stage.MIME) {
+            String mimeType = fileLockTable.withReadLock(metadata.getFileId(), () -> detectMimeType(path, metadata.getName()));
+            fileRepository.updateMimeType(metadata.getFileId(), metadata.getContentVersion(), mimeType);
+            metadata.setMimeType(mimeType);
+        } else {
+            lineIndexService.ensureIndex(metadata);
+        }
+    }
+
+    static String sha256(Path path) throws IOException {
+        MessageDigest digest = newSha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest)) {
+            byte[] buffer = new byte[HASH_BUFFER_SIZE];
+            while (in.read(buffer) != -1) {
+                // digest is updated as the stream is read
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String detectMimeType(Path path, String name) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(path)) {
+            head = in.readNBytes(SNIFF_BYTES);
+        }
+        return sniffMimeType(head, name);
+    }
+
+    static String sniffMimeType(byte[] head, String name) {
+        if (startsWith(head, 0x89, 'P', 'N', 'G')) {
+            return "image/png";
+        }
+        if (startsWith(head, 0xFF, 0xD8, 0xFF)) {
+            return "image/jpeg";
+        }
+        if (startsWith(head, 'G', 'I', 'F', '8')) {
+            return "image/gif";
+        }
+        if (startsWith(head, '%', 'P', 'D', 'F')) {
+            return "application/pdf";
+        }
+        if (startsWith(head, 0x1F, 0x8B)) {
+            return "application/gzip";
+        }
+        if (startsWith(head, 'P', 'K', 3, 4)) {
+            String byName = URLConnection.guessContentTypeFromName(name);
+            return byName != null ? byName : "application/zip";
+        }
+
+        String byName = name != null ? URLConnection.guessContentTypeFromName(name) : null;
+        if (byName != null) {
+            return byName;
+        }
+        for (byte b : head) {
+            if (b == 0) {
+                return "application/octet-stream";
+            }
+        }
+        return "text/plain";
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,18 +1,43 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.elsveys.jfr.FileOperationEvent;
 import org.elsveys.model.FileMetadata;
+import org.elsveys.model.FileProcessingTask.Stage;
 import org.elsveys.repository.FileMetadataRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 public class FileService {
@@ -20,19 +45,162 @@ public class FileService {
     @Autowired
     private FileMetadataRepository fileRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Autowired
+    private FileProcessingService fileProcessingService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private LineIndexService lineIndexService;
+
     @Value("${file.upload.dir:uploads}")
     private String uploadDir;
 
+    private static final Set<String> COMPRESSED_TYPES = Set.of(
+            "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "jar", "apk", "docx", "xlsx", "pptx", "pdf"
+    );
+
+    private static final int ARCHIVE_BUFFER_SIZE = 64 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     public FileMetadata uploadFile(MultipartFile file, Long uploaderId, String uploaderName) throws IOException {
-        String originalName = file.getOriginalFilename();
-        String extension = getExtension(originalName);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("upload");
+        boolean success = false;
+        try {
+            String originalName = file.getOriginalFilename();
+            Path filePath = event.db(() -> reserveUploadPath(originalName, uploaderId));
+            quotaService.reserve(uploaderId, file.getSize());
 
-        List<FileMetadata> existingFiles = fileRepository.findByUploaderId(uploaderId);
-        for (FileMetadata existing : existingFiles) {
-            if (existing.getName().equals(originalName)) {
-                throw new RuntimeException("File with this name already exists");
+            FileMetadata saved;
+            try {
+                event.storage(() -> Files.write(filePath, file.getBytes()));
+                FileMetadata metadata = newUploadMetadata(originalName, filePath, file.getSize(), uploaderId, uploaderName);
+                saved = event.db(() -> saveAndEnqueue(metadata));
+            } catch (IOException | RuntimeException e) {
+                quotaService.release(uploaderId, file.getSize());
+                throw e;
             }
+            event.setFileId(saved.getFileId());
+            event.addBytes(file.getSize());
+            recordTransfer("upload", file.getSize());
+            success = true;
+            return saved;
+        } finally {
+            recordOperation("upload", sample, event, success);
         }
+    }
+
+    /**
+     * Stores a raw request body in a single pass. The bytes go from the request straight into the upload
+     * directory and are hashed on the way, so the content is written to disk once and never read back to
+     * compute its hash. {@code contentLength} is -1 when the client did not declare it.
+     */
+    public FileMetadata uploadStream(InputStream in, String originalName, long contentLength,
+                                     Long uploaderId, String uploaderName) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("raw-upload");
+        boolean success = false;
+        long reserved = 0;
+        Path partPath = null;
+        Path storedPath = null;
+        try {
+            if (originalName == null || originalName.isBlank() || !isValidName(originalName)) {
+                throw new RuntimeException("Invalid file name");
+            }
+            Path filePath = event.db(() -> reserveUploadPath(originalName, uploaderId));
+            if (contentLength >= 0) {
+                quotaService.reserve(uploaderId, contentLength);
+                reserved = contentLength;
+            }
+
+            // Written next to its final name and renamed, so a half-received body is never visible.
+            Path part = createPartFile(filePath);
+            partPath = part;
+            MessageDigest digest = FileProcessingService.newSha256();
+            long size = event.storage(() -> copyHashed(in, part, digest, contentLength));
+            if (contentLength < 0) {
+                quotaService.reserve(uploaderId, size);
+                reserved = size;
+            }
+            event.storage(() -> Files.move(part, filePath, StandardCopyOption.ATOMIC_MOVE));
+            partPath = null;
+            storedPath = filePath;
+
+            FileMetadata metadata = newUploadMetadata(originalName, filePath, size, uploaderId, uploaderName);
+            metadata.setContentHash(HexFormat.of().formatHex(digest.digest()));
+            FileMetadata saved = event.db(() -> saveAndEnqueue(metadata, Stage.MIME));
+            event.setFileId(saved.getFileId());
+            event.addBytes(size);
+            recordTransfer("raw-upload", size);
+            success = true;
+            return saved;
+        } catch (IOException | RuntimeException e) {
+            quotaService.release(uploaderId, reserved);
+            if (partPath != null) {
+                Files.deleteIfExists(partPath);
+            }
+            if (storedPath != null) {
+                Files.deleteIfExists(storedPath);
+            }
+            throw e;
+        } finally {
+            recordOperation("raw-upload", sample, event, success);
+        }
+    }
+
+    private static long copyHashed(InputStream in, Path target, MessageDigest digest, long expected) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        long total = 0;
+        try (OutputStream out = Files.newOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                total += read;
+                if (expected >= 0 && total > expected) {
+                    throw new IOException("Request body is longer than its Content-Length");
+                }
+            }
+        }
+        if (expected >= 0 && total != expected) {
+            throw new IOException("Incomplete upload: expected " + expected + " bytes, received " + total);
+        }
+        return total;
+    }
+
+    /**
+     * Creates an empty, uniquely named part file next to {@code target}. It is created like content written
+     * with {@code Files.write}, not with the owner-only permissions of {@code Files.createTempFile}, so a
+     * part file renamed into place is stored with the same permissions as any other upload.
+     */
+    public static Path createPartFile(Path target) throws IOException {
+        return Files.createFile(target.toAbsolutePath().resolveSibling(".upload-" + UUID.randomUUID() + ".part"));
+    }
+
+    public static boolean isValidName(String name) {
+        return !name.contains("/") && !name.contains("\\") && !name.equals(".") && !name.equals("..");
+    }
+
+    /**
+     * Checks that the uploader has no file with this name yet and returns where its content should be stored.
+     */
+    public Path reserveUploadPath(String originalName, Long uploaderId) {
+        if (fileRepository.existsByUploaderIdAndName(uploaderId, originalName)) {
+            throw new RuntimeException("File with this name already exists");
+        }
+        quotaService.checkAvailable(uploaderId);
 
         File uploadDirectory = new File(uploadDir);
         if (!uploadDirectory.exists()) {
@@ -40,73 +208,302 @@ public class FileService {
         }
 
         String storedName = uploaderId + "_" + originalName;
-        Path filePath = Paths.get(uploadDir, storedName);
-        Files.write(filePath, file.getBytes());
+        return Paths.get(uploadDir, storedName);
+    }
 
+    /**
+     * Records the metadata of a file whose content was already written to a path from {@link #reserveUploadPath}.
+     * The size of streamed content is only known now, so its quota is charged here; the caller discards
+     * the content if this throws.
+     */
+    public FileMetadata saveUploadedFile(String originalName, Path filePath, long size, Long uploaderId, String uploaderName) {
+        quotaService.reserve(uploaderId, size);
+        FileMetadata saved;
+        try {
+            saved = saveAndEnqueue(newUploadMetadata(originalName, filePath, size, uploaderId, uploaderName));
+        } catch (RuntimeException e) {
+            quotaService.release(uploaderId, size);
+            throw e;
+        }
+        recordTransfer("upload", size);
+        return saved;
+    }
+
+    /**
+     * Saves metadata of freshly written content and queues its post-upload processing in the same transaction.
+     */
+    private FileMetadata saveAndEnqueue(FileMetadata metadata) {
+        return saveAndEnqueue(metadata, Stage.HASH);
+    }
+
+    private FileMetadata saveAndEnqueue(FileMetadata metadata, Stage firstStage) {
+        return transactionTemplate.execute(status -> {
+            FileMetadata saved = fileRepository.save(metadata);
+            fileProcessingService.enqueue(saved, firstStage);
+            return saved;
+        });
+    }
+
+    private FileMetadata newUploadMetadata(String originalName, Path filePath, long size, Long uploaderId, String uploaderName) {
         FileMetadata metadata = new FileMetadata();
         metadata.setName(originalName);
-        metadata.setType(extension);
-        metadata.setSize(file.getSize());
+        metadata.setType(getExtension(originalName));
+        metadata.setSize(size);
         metadata.setFilePath(filePath.toString());
         metadata.setUploaderId(uploaderId);
         metadata.setUploaderName(uploaderName);
         metadata.setEditorId(uploaderId);
         metadata.setEditorName(uploaderName);
-
-        return fileRepository.save(metadata);
+        return metadata;
     }
 
     public byte[] downloadFile(Long fileId) throws IOException {
-        FileMetadata metadata = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("download");
+        boolean success = false;
+        try {
+            event.setFileId(fileId);
+            byte[] data = fileLockTable.withReadLock(fileId, () -> {
+                FileMetadata metadata = event.db(() -> fileRepository.findById(fileId))
+                        .orElseThrow(() -> new RuntimeException("File not found"));
 
-        Path path = Paths.get(metadata.getFilePath());
-        return Files.readAllBytes(path);
+                Path path = Paths.get(metadata.getFilePath());
+                return event.storage(() -> Files.readAllBytes(path));
+            });
+            event.addBytes(data.length);
+            recordTransfer("download", data.length);
+            success = true;
+            return data;
+        } finally {
+            recordOperation("download", sample, event, success);
+        }
     }
 
     public void deleteFile(Long fileId) throws IOException {
-        FileMetadata metadata = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("delete");
+        boolean success = false;
+        try {
+            event.setFileId(fileId);
+            fileLockTable.withWriteLock(fileId, () -> {
+                FileMetadata metadata = event.db(() -> fileRepository.findById(fileId))
+                        .orElseThrow(() -> new RuntimeException("File not found"));
 
-        Path path = Paths.get(metadata.getFilePath());
-        Files.deleteIfExists(path);
-        fileRepository.deleteById(fileId);
+                Path path = Paths.get(metadata.getFilePath());
+                event.storage(() -> Files.deleteIfExists(path));
+                lineIndexService.deleteIndex(fileId);
+                long size = metadata.getSize() != null ? metadata.getSize() : 0;
+                event.addBytes(size);
+                event.db(() -> {
+                    fileRepository.deleteById(fileId);
+                    return null;
+                });
+                quotaService.release(metadata.getUploaderId(), size);
+                return null;
+            });
+            success = true;
+        } finally {
+            recordOperation("delete", sample, event, success);
+        }
     }
 
+    @Transactional(readOnly = true)
     public List<FileMetadata> listAllFiles() {
-        return fileRepository.findAll();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("list");
+        boolean success = false;
+        try {
+            List<FileMetadata> files = event.db(fileRepository::findAll);
+            success = true;
+            return files;
+        } finally {
+            recordOperation("list", sample, event, success);
+        }
     }
 
+    @Transactional(readOnly = true)
     public FileMetadata getFileMetadata(Long fileId) {
         return fileRepository.findById(fileId)
                 .orElseThrow(() -> new RuntimeException("File not found"));
     }
 
-    private String getExtension(String filename) {
+    /**
+     * Streams the content of {@code contentVersion} while holding the file's read lock, so a concurrent update
+     * cannot tear the body. {@code beforeWrite} runs under the lock, before the first byte, to send headers.
+     * Returns false without writing anything when the file was deleted or its content replaced.
+     */
+    public boolean streamContent(Long fileId, long contentVersion, Consumer<FileMetadata> beforeWrite,
+                                 OutputStream out) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("signed-download");
+        boolean success = false;
+        try {
+            event.setFileId(fileId);
+            Long bytes = fileLockTable.withReadLock(fileId, () -> {
+                FileMetadata metadata = event.db(() -> fileRepository.findById(fileId)).orElse(null);
+                if (metadata == null || metadata.getContentVersion() != contentVersion) {
+                    return null;
+                }
+                beforeWrite.accept(metadata);
+                return event.storage(() -> Files.copy(Paths.get(metadata.getFilePath()), out));
+            });
+            if (bytes == null) {
+                return false;
+            }
+            event.addBytes(bytes);
+            recordTransfer("signed-download", bytes);
+            success = true;
+            return true;
+        } finally {
+            recordOperation("signed-download", sample, event, success);
+        }
+    }
+
+    @Transactional(readOnly = true)
+    public List<FileMetadata> getFilesMetadata(List<Long> fileIds) {
+        if (fileIds == null || fileIds.isEmpty()) {
+            throw new RuntimeException("No files requested");
+        }
+
+        Set<Long> uniqueIds = new LinkedHashSet<>(fileIds);
+        Map<Long, FileMetadata> found = fileRepository.findAllById(uniqueIds).stream()
+                .collect(Collectors.toMap(FileMetadata::getFileId, Function.identity()));
+
+        List<FileMetadata> ordered = new ArrayList<>(uniqueIds.size());
+        for (Long fileId : uniqueIds) {
+            FileMetadata metadata = found.get(fileId);
+            if (metadata == null) {
+                throw new RuntimeException("File not found: " + fileId);
+            }
+            ordered.add(metadata);
+        }
+        return ordered;
+    }
+
+    public void writeArchive(List<FileMetadata> files, OutputStream out) throws IOException {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("archive");
+        boolean success = false;
+        long bytes = 0;
+        try {
+            ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(out, ARCHIVE_BUFFER_SIZE));
+            Set<String> entryNames = new HashSet<>();
+
+            for (FileMetadata metadata : files) {
+                String entryName = uniqueEntryName(metadata, entryNames);
+
+                // Deflating already-compressed data only burns CPU, so those entries are written at level 0.
+                zip.setLevel(COMPRESSED_TYPES.contains(metadata.getType())
+                        ? Deflater.NO_COMPRESSION
+                        : Deflater.BEST_SPEED);
+
+                ZipEntry entry = new ZipEntry(entryName);
+                if (metadata.getModifiedDate() != null) {
+                    entry.setTimeLocal(metadata.getModifiedDate());
+                }
+                zip.putNextEntry(entry);
+                bytes += fileLockTable.withReadLock(metadata.getFileId(),
+                        () -> event.storage(() -> Files.copy(Paths.get(metadata.getFilePath()), zip)));
+                zip.closeEntry();
+            }
+
+            zip.finish();
+            zip.flush();
+            success = true;
+        } finally {
+            event.addBytes(bytes);
+            recordTransfer("archive", bytes);
+            recordOperation("archive", sample, event, success);
+        }
+    }
+
+    /**
+     * Returns the file's name, or its id-prefixed form when that name is already in the archive. A real file
+     * may itself be named like the prefixed form, so the candidate is checked again until it is unused;
+     * a duplicate entry would only fail once the response is already committed.
+     */
+    private static String uniqueEntryName(FileMetadata metadata, Set<String> entryNames) {
+        String name = metadata.getName();
+        if (entryNames.add(name)) {
+            return name;
+        }
+        String candidate = metadata.getFileId() + "_" + name;
+        for (int attempt = 2; !entryNames.add(candidate); attempt++) {
+            candidate = metadata.getFileId() + "_" + attempt + "_" + name;
+        }
+        return candidate;
+    }
+
+    static String getExtension(String filename) {
         int dotIndex = filename.lastIndexOf('.');
         return dotIndex > 0 ? filename.substring(dotIndex + 1).toLowerCase() : "";
     }
 
     public FileMetadata updateFile(Long fileId, MultipartFile file, Long editorId, String editorName) throws IOException {
-        FileMetadata metadata = fileRepository.findById(fileId)
-                .orElseThrow(() -> new RuntimeException("File not found"));
+        Timer.Sample sample = Timer.start(meterRegistry);
+        FileOperationEvent event = FileOperationEvent.start("update");
+        boolean success = false;
+        try {
+            event.setFileId(fileId);
+            FileMetadata saved = fileLockTable.withWriteLock(fileId, () -> {
+                FileMetadata metadata = event.db(() -> fileRepository.findById(fileId))
+                        .orElseThrow(() -> new RuntimeException("File not found"));
 
-        String originalName = file.getOriginalFilename();
-        String extension = getExtension(originalName);
+                String originalName = file.getOriginalFilename();
+                String extension = getExtension(originalName);
 
-        Path oldPath = Paths.get(metadata.getFilePath());
-        Files.deleteIfExists(oldPath);
+                // Usage is charged to the owner, whoever edits the file.
+                Long ownerId = metadata.getUploaderId();
+                long growth = file.getSize() - (metadata.getSize() != null ? metadata.getSize() : 0);
+                quotaService.reserve(ownerId, growth);
 
-        String storedName = metadata.getUploaderId() + "_" + originalName;
-        Path newFilePath = Paths.get(uploadDir, storedName);
-        Files.write(newFilePath, file.getBytes());
+                FileMetadata updated;
+                try {
+                    Path oldPath = Paths.get(metadata.getFilePath());
+                    event.storage(() -> Files.deleteIfExists(oldPath));
+                    lineIndexService.deleteIndex(metadata.getFileId());
 
-        metadata.setName(originalName);
-        metadata.setType(extension);
-        metadata.setSize(file.getSize());
-        metadata.setFilePath(newFilePath.toString());
-        metadata.setEditorId(editorId);
-        metadata.setEditorName(editorName);
-        return fileRepository.save(metadata);
+                    String storedName = metadata.getUploaderId() + "_" + originalName;
+                    Path newFilePath = Paths.get(uploadDir, storedName);
+                    event.storage(() -> Files.write(newFilePath, file.getBytes()));
+
+                    metadata.setName(originalName);
+                    metadata.setType(extension);
+                    metadata.setSize(file.getSize());
+                    metadata.setFilePath(newFilePath.toString());
+                    metadata.setEditorId(editorId);
+                    metadata.setEditorName(editorName);
+                    metadata.contentReplaced();
+                    updated = event.db(() -> saveAndEnqueue(metadata));
+                } catch (IOException | RuntimeException e) {
+                    quotaService.release(ownerId, growth);
+                    throw e;
+                }
+                quotaService.release(ownerId, -growth);
+                return updated;
+            });
+            event.addBytes(file.getSize());
+            recordTransfer("update", file.getSize());
+            success = true;
+            return saved;
+        } finally {
+            recordOperation("update", sample, event, success);
+        }
+    }
+
+    private void recordOperation(String operation, Timer.Sample sample, FileOperationEvent event, boolean success) {
+        event.finish(success);
+        sample.stop(Timer.builder("files.operation")
+                .tag("operation", operation)
+                .tag("outcome", success ? "success" : "error")
+                .register(meterRegistry));
+    }
+
+    private void recordTransfer(String operation, long bytes) {
+        DistributionSummary.builder("files.transfer.bytes")
+                .baseUnit("bytes")
+                .tag("operation", operation)
+                .register(meterRegistry)
+                .record(bytes);
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package org.elsveys.service;
+
+import org.elsveys.model.FileProcessingTask.Stage;
+
+public class FileStoredEvent {
+    private final Long fileId;
+    private final Long taskId;
+    private final Stage stage;
+
+    public FileStoredEvent(Long fileId, Long taskId, Stage stage) {
+        this.fileId = fileId;
+        this.taskId = taskId;
+        this.stage = stage;
+    }
+
+    public Long getFileId() { return fileId; }
+
+    public Long getTaskId() { return taskId; }
+
+    public Stage getStage() { return stage; }
+}
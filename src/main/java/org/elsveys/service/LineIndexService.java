@@ -0,0 +1,357 @@
+package org.elsveys.service;
+
+import org.elsveys.model.FileMetadata;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Paged line access to large text files.
+ *
+ * A sparse index with the byte offset of every {@code interval}-th line is kept as {@code <fileId>.lidx}
+ * in a directory of its own, so it can never collide with an uploaded file. A page is served by jumping
+ * to the nearest indexed line with positional reads and scanning at most {@code interval} lines forward,
+ * so the cost of a page does not depend on how deep in the file it is. Pages within the first interval
+ * are read from the start of the file and never need the index.
+ */
+@Service
+public class LineIndexService {
+
+    public static final String INDEX_SUFFIX = ".lidx";
+
+    private static final Set<String> TEXT_TYPES = Set.of(
+            "kt", "txt", "log", "md", "csv", "tsv", "json", "xml", "yml", "yaml", "properties",
+            "java", "js", "jsx", "ts", "py", "c", "h", "cpp", "sql", "sh", "html", "css"
+    );
+    private static final byte[] MAGIC = {'L', 'I', 'D', 'X'};
+    private static final int VERSION = 1;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_BYTES = 64 * 1024;
+    private static final int LOADED_INDEXES = 128;
+
+    public static class Page {
+        private final long start;
+        private final List<String> lines;
+        private final boolean endOfFile;
+        private final Long totalLines;
+
+        Page(long start, List<String> lines, boolean endOfFile, Long totalLines) {
+            this.start = start;
+            this.lines = lines;
+            this.endOfFile = endOfFile;
+            this.totalLines = totalLines;
+        }
+
+        public long getStart() { return start; }
+
+        public List<String> getLines() { return lines; }
+
+        public long getNextLine() { return start + lines.size(); }
+
+        public boolean isEndOfFile() { return endOfFile; }
+
+        public Long getTotalLines() { return totalLines; }
+    }
+
+    static final class LineIndex {
+        final int interval;
+        final long sourceSize;
+        final long sourceModified;
+        final long totalLines;
+        final long[] offsets;
+
+        LineIndex(int interval, long sourceSize, long sourceModified, long totalLines, long[] offsets) {
+            this.interval = interval;
+            this.sourceSize = sourceSize;
+            this.sourceModified = sourceModified;
+            this.totalLines = totalLines;
+            this.offsets = offsets;
+        }
+
+        boolean matches(Path source) throws IOException {
+            return Files.size(source) == sourceSize && Files.getLastModifiedTime(source).toMillis() == sourceModified;
+        }
+    }
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Value("${text.index.dir:${file.upload.dir:uploads}/.lineindex}")
+    private String indexDir;
+
+    @Value("${text.index.interval:1024}")
+    private int interval;
+
+    @Value("${text.page.max-lines:1000}")
+    private int maxPageLines;
+
+    private final Map<Long, LineIndex> loaded = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, LineIndex> eldest) {
+            return size() > LOADED_INDEXES;
+        }
+    };
+    private final Map<Long, CompletableFuture<LineIndex>> building = new ConcurrentHashMap<>();
+
+    public static boolean isText(FileMetadata metadata) {
+        return (metadata.getType() != null && TEXT_TYPES.contains(metadata.getType().toLowerCase()))
+                || (metadata.getMimeType() != null && metadata.getMimeType().startsWith("text/"));
+    }
+
+    Path indexPathFor(Long fileId) {
+        return Paths.get(indexDir, fileId + INDEX_SUFFIX);
+    }
+
+    /**
+     * Drops the index of a file whose content was replaced or deleted. Callers hold the file's write lock.
+     */
+    public void deleteIndex(Long fileId) throws IOException {
+        synchronized (loaded) {
+            loaded.remove(fileId);
+        }
+        Files.deleteIfExists(indexPathFor(fileId));
+    }
+
+    public Page readLines(FileMetadata metadata, long start, int count) throws IOException {
+        if (!isText(metadata)) {
+            throw new RuntimeException("Line access is not available for ." + metadata.getType() + " files");
+        }
+        if (start < 0 || count <= 0) {
+            throw new RuntimeException("Invalid line range");
+        }
+        int limit = Math.min(count, maxPageLines);
+        Path source = Paths.get(metadata.getFilePath());
+
+        return fileLockTable.withReadLock(metadata.getFileId(), () -> {
+            LineIndex index = start < interval ? null : index(metadata.getFileId(), source);
+            return readPage(source, index, start, limit);
+        });
+    }
+
+    /**
+     * Builds or refreshes the stored index for a file, e.g. right after upload.
+     */
+    public void ensureIndex(FileMetadata metadata) throws IOException {
+        Path source = Paths.get(metadata.getFilePath());
+        fileLockTable.withReadLock(metadata.getFileId(), () -> index(metadata.getFileId(), source));
+    }
+
+    LineIndex index(Long fileId, Path source) throws IOException {
+        LineIndex index;
+        synchronized (loaded) {
+            index = loaded.get(fileId);
+        }
+        if (index != null && index.matches(source)) {
+            return index;
+        }
+
+        CompletableFuture<LineIndex> own = new CompletableFuture<>();
+        CompletableFuture<LineIndex> running = building.putIfAbsent(fileId, own);
+        if (running != null) {
+            try {
+                return running.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            index = load(indexPathFor(fileId));
+            if (index == null || index.interval != interval || !index.matches(source)) {
+                index = build(source, interval);
+                store(index, indexPathFor(fileId));
+            }
+            synchronized (loaded) {
+                loaded.put(fileId, index);
+            }
+            own.complete(index);
+            return index;
+        } catch (IOException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            building.remove(fileId, own);
+        }
+    }
+
+    static LineIndex build(Path source, int interval) throws IOException {
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long modified = Files.getLastModifiedTime(source).toMillis();
+            long[] offsets = new long[16];
+            int count = 1;
+            long lines = 0;
+            byte last = '\n';
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+            long position = 0;
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        lines++;
+                        if (lines % interval == 0 && position + i + 1 < size) {
+                            if (count == offsets.length) {
+                                offsets = Arrays.copyOf(offsets, count * 2);
+                            }
+                            offsets[count++] = position + i + 1;
+                        }
+                    }
+                }
+                last = buffer.get(read - 1);
+                position += read;
+            }
+            if (last != '\n') {
+                lines++;
+            }
+            return new LineIndex(interval, size, modified, lines, Arrays.copyOf(offsets, count));
+        }
+    }
+
+    static Page readPage(Path source, LineIndex index, long start, int count) throws IOException {
+        long offset = 0;
+        long line = 0;
+        if (index != null) {
+            int slot = (int) Math.min(start / index.interval, index.offsets.length - 1);
+            offset = index.offsets[slot];
+            line = (long) slot * index.interval;
+        }
+
+        List<String> lines = new ArrayList<>(count);
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+        boolean endOfFile = false;
+
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            long position = offset;
+            scan:
+            while (true) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    endOfFile = true;
+                    break;
+                }
+                byte[] bytes = buffer.array();
+                int lineStart = 0;
+                for (int i = 0; i < read; i++) {
+                    if (bytes[i] != '\n') {
+                        continue;
+                    }
+                    if (line >= start) {
+                        append(current, bytes, lineStart, i - lineStart);
+                        lines.add(decode(current));
+                        if (lines.size() == count) {
+                            endOfFile = position + i + 1 >= channel.size();
+                            break scan;
+                        }
+                    }
+                    current.reset();
+                    line++;
+                    lineStart = i + 1;
+                }
+                if (line >= start) {
+                    append(current, bytes, lineStart, read - lineStart);
+                }
+                position += read;
+            }
+        }
+        if (current.size() > 0 && lines.size() < count) {
+            lines.add(decode(current));
+        }
+        return new Page(start, lines, endOfFile, index != null ? index.totalLines : null);
+    }
+
+    private static void append(ByteArrayOutputStream current, byte[] bytes, int offset, int length) {
+        // Overlong lines are truncated so a single page cannot grow without bound.
+        int room = MAX_LINE_BYTES - current.size();
+        if (room > 0) {
+            current.write(bytes, offset, Math.min(length, room));
+        }
+    }
+
+    private static String decode(ByteArrayOutputStream line) {
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    static LineIndex load(Path indexPath) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(indexPath))) {
+            byte[] magic = in.readNBytes(MAGIC.length);
+            if (!Arrays.equals(magic, MAGIC) || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            int interval = in.readInt();
+            long size = in.readLong();
+            long modified = in.readLong();
+            long totalLines = in.readLong();
+            int count = in.readInt();
+            long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readLong();
+            }
+            return new LineIndex(interval, size, modified, totalLines, offsets);
+        } catch (IOException e) {
+            // A missing, truncated or corrupt index is rebuilt.
+            return null;
+        }
+    }
+
+    static void store(LineIndex index, Path indexPath) throws IOException {
+        Files.createDirectories(indexPath.getParent());
+        Path temp = Files.createTempFile(indexPath.getParent(), ".lidx-", ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.write(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(index.interval);
+                out.writeLong(index.sourceSize);
+                out.writeLong(index.sourceModified);
+                out.writeLong(index.totalLines);
+                out.writeInt(index.offsets.length);
+                for (long offset : index.offsets) {
+                    out.writeLong(offset);
+                }
+            }
+            Files.move(temp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Downscaled image renditions for previews, rendered on first request and kept in a size-bounded
+ * directory. Cache keys include the file's content version, so a rendition never outlives the content
+ * it was made from and can be cached by clients for a long time.
+ *
+ * Requested sizes are rounded up to a few fixed buckets to keep the number of renditions per image small.
+ * A preview is handed out already opened, so eviction can remove its file while it is being sent.
+ */
+@Service
+public class PreviewService {
+
+    private static final Set<String> PREVIEW_TYPES = Set.of("jpg", "jpeg", "png", "gif", "bmp");
+    private static final int[] SIZE_BUCKETS = {64, 128, 256, 512, 1024};
+    private static final float JPEG_QUALITY = 0.8f;
+    private static final int OPEN_ATTEMPTS = 3;
+
+    public static class Preview {
+        private final Path path;
+        private final InputStream stream;
+        private final long size;
+        private final String mediaType;
+        private final String version;
+
+        Preview(Path path, InputStream stream, long size, String mediaType, String version) {
+            this.path = path;
+            this.stream = stream;
+            this.size = size;
+            this.mediaType = mediaType;
+            this.version = version;
+        }
+
+        public Path getPath() { return path; }
+
+        /**
+         * The rendition, opened before it was returned. The caller closes it.
+         */
+        public InputStream getStream() { return stream; }
+
+        public long getSize() { return size; }
+
+        public String getMediaType() { return mediaType; }
+
+        public String getVersion() { return version; }
+    }
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${preview.cache.dir:${file.upload.dir:uploads}/.previews}")
+    private String cacheDir;
+
+    @Value("${preview.cache.max-bytes:268435456}")
+    private long maxCacheBytes;
+
+    private final AtomicLong cacheBytes = new AtomicLong();
+    private final Map<String, CompletableFuture<Path>> rendering = new ConcurrentHashMap<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    @PostConstruct
+    void init() throws IOException {
+        Path dir = Paths.get(cacheDir);
+        Files.createDirectories(dir);
+        try (Stream<Path> files = Files.list(dir)) {
+            cacheBytes.set(files.mapToLong(PreviewService::sizeOf).sum());
+        }
+    }
+
+    public static boolean isPreviewable(String type) {
+        return type != null && PREVIEW_TYPES.contains(type.toLowerCase());
+    }
+
+    /**
+     * Content version used in cache keys; it changes exactly when the file's content is replaced.
+     */
+    public static String version(FileMetadata metadata) {
+        return Long.toString(metadata.getContentVersion());
+    }
+
+    public Preview getPreview(FileMetadata metadata, int width, int height) throws IOException {
+        if (!isPreviewable(metadata.getType())) {
+            throw new RuntimeException("Preview not available for ." + metadata.getType() + " files");
+        }
+
+        int bucket = bucket(Math.max(width, height));
+        String version = version(metadata);
+        boolean png = !"jpg".equalsIgnoreCase(metadata.getType()) && !"jpeg".equalsIgnoreCase(metadata.getType());
+        String key = metadata.getFileId() + "-" + version + "-" + bucket + (png ? ".png" : ".jpg");
+        Path target = Paths.get(cacheDir, key);
+
+        InputStream stream = open(key, metadata, target, bucket, png);
+        long size = sizeOf(target);
+        // Only after the rendition is open: eviction may pick the one just rendered.
+        if (cacheBytes.get() > maxCacheBytes) {
+            evict();
+        }
+        return new Preview(target, stream, size, png ? "image/png" : "image/jpeg", version + "-" + bucket);
+    }
+
+    private InputStream open(String key, FileMetadata metadata, Path target, int bucket, boolean png) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            boolean hit = Files.exists(target);
+            if (!hit) {
+                meterRegistry.counter("preview.cache", "result", "miss").increment();
+                renderOnce(key, metadata, target, bucket, png);
+            }
+            try {
+                InputStream stream = Files.newInputStream(target);
+                if (hit) {
+                    meterRegistry.counter("preview.cache", "result", "hit").increment();
+                    touch(target);
+                }
+                return stream;
+            } catch (NoSuchFileException e) {
+                // Evicted before it could be opened; render it again.
+                if (attempt == OPEN_ATTEMPTS) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void renderOnce(String key, FileMetadata metadata, Path target, int bucket, boolean png) throws IOException {
+        CompletableFuture<Path> own = new CompletableFuture<>();
+        CompletableFuture<Path> running = rendering.putIfAbsent(key, own);
+        if (running != null) {
+            // Another request is rendering the same rendition; wait for it instead of doing the work twice.
+            try {
+                running.join();
+                return;
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw e.getCause() instanceof RuntimeException re ? re : e;
+            }
+        }
+
+        try {
+            BufferedImage image = fileLockTable.withReadLock(metadata.getFileId(), () -> {
+                // The key names the content version read before the lock; render only if it is still current.
+                FileMetadata current = fileRepository.findById(metadata.getFileId())
+                        .orElseThrow(() -> new RuntimeException("File not found"));
+                if (!Objects.equals(current.getContentVersion(), metadata.getContentVersion())) {
+                    throw new RuntimeException("File was changed during preview");
+                }
+                return readScaled(Paths.get(current.getFilePath()), bucket);
+            });
+            Path temp = Files.createTempFile(Paths.get(cacheDir), ".render-", ".tmp");
+            try {
+                write(image, temp, png);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+            cacheBytes.addAndGet(sizeOf(target));
+            own.complete(target);
+        } catch (IOException | RuntimeException e) {
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            rendering.remove(key, own);
+        }
+    }
+
+    /**
+     * Decodes the image with source subsampling so large originals are never fully materialized,
+     * then scales the result to fit in a {@code bucket x bucket} box.
+     */
+    static BufferedImage readScaled(Path source, int bucket) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new RuntimeException("Unsupported image format");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                // Keep at least twice the target resolution for a smooth final downscale.
+                int subsampling = Math.max(1, Math.max(width, height) / (bucket * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+
+                double scale = Math.min(1.0, (double) bucket / Math.max(decoded.getWidth(), decoded.getHeight()));
+                int targetWidth = Math.max(1, (int) Math.round(decoded.getWidth() * scale));
+                int targetHeight = Math.max(1, (int) Math.round(decoded.getHeight() * scale));
+
+                boolean alpha = decoded.getColorModel().hasAlpha();
+                BufferedImage scaled = new BufferedImage(targetWidth, targetHeight,
+                        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+                Graphics2D g = scaled.createGraphics();
+                try {
+                    g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                    g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                    g.drawImage(decoded, 0, 0, targetWidth, targetHeight, null);
+                } finally {
+                    g.dispose();
+                }
+                return scaled;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static void write(BufferedImage image, Path target, boolean png) throws IOException {
+        if (png) {
+            ImageIO.write(image, "png", target.toFile());
+            return;
+        }
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(target.toFile())) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Removes the least recently used renditions until the cache is back under 90% of its limit.
+     */
+    void evict() throws IOException {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(Paths.get(cacheDir))) {
+                files = listing
+                        .filter(p -> !p.getFileName().toString().startsWith("."))
+                        .sorted(Comparator.comparing(PreviewService::lastAccess))
+                        .toList();
+            }
+            long limit = maxCacheBytes * 9 / 10;
+            for (Path file : files) {
+                if (cacheBytes.get() <= limit) {
+                    break;
+                }
+                long size = sizeOf(file);
+                if (Files.deleteIfExists(file)) {
+                    cacheBytes.addAndGet(-size);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    long cacheBytes() {
+        return cacheBytes.get();
+    }
+
+    private static int bucket(int requested) {
+        for (int size : SIZE_BUCKETS) {
+            if (requested <= size) {
+                return size;
+            }
+        }
+        return SIZE_BUCKETS[SIZE_BUCKETS.length - 1];
+    }
+
+    private static void touch(Path file) {
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Only affects eviction order.
+        }
+    }
+
+    private static FileTime lastAccess(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user storage accounting.
+ *
+ * Usage lives in memory as one counter per user, so checking a quota never needs a query. Writers
+ * reserve the bytes they are about to store with a compare-and-set on that counter, which cannot
+ * overshoot the limit no matter how many uploads race, and release them again if the write fails.
+ * Changed counters are flushed to {@code users.used_bytes} in the background; on startup the counters
+ * are rebuilt from the stored file sizes, so a crash between flushes loses nothing. Per-user limits
+ * from {@code users.quota_bytes} are reloaded periodically, so a changed limit applies without a restart.
+ *
+ * The rebuild runs as an early lifecycle phase rather than at construction: it still finishes before the
+ * web server accepts requests, but a refresh-only run (the AppCDS training run) never touches the database.
+ */
+@Service
+public class QuotaService implements SmartLifecycle {
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${files.quota.default-bytes:1073741824}")
+    private long defaultLimit;
+
+    private final Map<Long, AtomicLong> usage = new ConcurrentHashMap<>();
+    private volatile Map<Long, Long> limits = Map.of();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        rebuild();
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        flush();
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // Started before and stopped after the web server, so no request sees unbuilt or unflushed counters.
+        return 0;
+    }
+
+    public void rebuild() {
+        usage.clear();
+        for (Object[] row : fileRepository.sumSizeByUploader()) {
+            usage.put((Long) row[0], new AtomicLong(row[1] != null ? ((Number) row[1]).longValue() : 0));
+            dirty.add((Long) row[0]);
+        }
+        refreshLimits();
+    }
+
+    /**
+     * Reloads the per-user limits. The new set replaces the old one at once, so a limit that was
+     * removed falls back to the default.
+     */
+    @Scheduled(fixedDelayString = "${files.quota.limit-refresh-ms:60000}")
+    public void refreshLimits() {
+        Map<Long, Long> overrides = new HashMap<>();
+        for (Object[] row : userRepository.findQuotaOverrides()) {
+            overrides.put((Long) row[0], (Long) row[1]);
+        }
+        limits = overrides;
+    }
+
+    /**
+     * Adds {@code bytes} to the user's usage, or throws if that would exceed their quota.
+     */
+    public void reserve(Long userId, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        AtomicLong used = counter(userId);
+        long limit = getLimit(userId);
+        while (true) {
+            long current = used.get();
+            if (current + bytes > limit) {
+                meterRegistry.counter("files.quota.rejected").increment();
+                throw new RuntimeException("Storage quota exceeded");
+            }
+            if (used.compareAndSet(current, current + bytes)) {
+                dirty.add(userId);
+                return;
+            }
+        }
+    }
+
+    public void release(Long userId, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        counter(userId).addAndGet(-bytes);
+        dirty.add(userId);
+    }
+
+    /**
+     * Rejects a user that has no space left at all, for writes whose size is only known afterwards.
+     */
+    public void checkAvailable(Long userId) {
+        if (getUsed(userId) >= getLimit(userId)) {
+            meterRegistry.counter("files.quota.rejected").increment();
+            throw new RuntimeException("Storage quota exceeded");
+        }
+    }
+
+    public long getUsed(Long userId) {
+        AtomicLong used = usage.get(userId);
+        return used != null ? used.get() : 0;
+    }
+
+    public long getLimit(Long userId) {
+        return limits.getOrDefault(userId, defaultLimit);
+    }
+
+    @Scheduled(fixedDelayString = "${files.quota.flush-interval-ms:10000}")
+    public void flush() {
+        for (Long userId : dirty) {
+            dirty.remove(userId);
+            userRepository.updateUsedBytes(userId, getUsed(userId));
+        }
+    }
+
+    private AtomicLong counter(Long userId) {
+        return usage.computeIfAbsent(userId, id -> new AtomicLong());
+    }
+}
@@ -1,11 +1,15 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.elsveys.model.FileMetadata;
 import org.elsveys.repository.FileMetadataRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -14,12 +18,14 @@ public class SortFilterService {
     @Autowired
     private FileMetadataRepository fileRepository;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Transactional(readOnly = true)
     public List<FileMetadata> sortByModifiedDate(boolean ascending) {
-        if (ascending) {
-            return fileRepository.findAllByOrderByModifiedDateAsc();
-        } else {
-            return fileRepository.findAllByOrderByModifiedDateDesc();
-        }
+        return timed("sort", () -> ascending
+                ? fileRepository.findAllByOrderByModifiedDateAsc()
+                : fileRepository.findAllByOrderByModifiedDateDesc());
     }
 
     public List<FileMetadata> filterByType(List<FileMetadata> files, List<String> types) {
@@ -32,6 +38,7 @@ public class SortFilterService {
                 .collect(Collectors.toList());
     }
 
+    @Transactional(readOnly = true)
     public List<FileMetadata> sortAndFilter(boolean ascending, List<String> types) {
         List<FileMetadata> sorted = sortByModifiedDate(ascending);
 
@@ -42,7 +49,23 @@ public class SortFilterService {
         return sorted;
     }
 
+    @Transactional(readOnly = true)
     public List<FileMetadata> getAllFilesForUser(Long userId) {
-        return fileRepository.findByUploaderId(userId);
+        return timed("by-user", () -> fileRepository.findByUploaderId(userId));
+    }
+
+    private List<FileMetadata> timed(String query, Supplier<List<FileMetadata>> supplier) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            List<FileMetadata> result = supplier.get();
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("files.query")
+                    .tag("query", query)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,646 @@
+package org.elsveys.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.concurrent.DelegatingSecurityContextCallable;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Applies a stream of sync operations in one request.
+ *
+ * The request body starts with the magic bytes "FMO" and a version byte, followed by operations:
+ * <ul>
+ *     <li>{@code 'U'} name, size, bytes - upload a new file</li>
+ *     <li>{@code 'P'} fileId, name, size, bytes - replace an existing file</li>
+ *     <li>{@code 'D'} fileId - delete a file</li>
+ *     <li>{@code 0} - end of stream</li>
+ * </ul>
+ * Names are a varint length followed by UTF-8 bytes; ids and sizes are varints.
+ *
+ * The request thread parses the stream, a writer stage spools file contents to disk and a commit
+ * stage saves metadata in batches, all connected by bounded queues. One NDJSON result line is
+ * streamed back per operation as soon as its batch is committed.
+ */
+@Service
+public class SyncApplyService {
+
+    public static final String MEDIA_TYPE = "application/vnd.filemanager.sync-ops";
+
+    private static final byte[] MAGIC = {'F', 'M', 'O'};
+    private static final int VERSION = 1;
+    private static final int OP_END = 0;
+    private static final int OP_UPLOAD = 'U';
+    private static final int OP_UPDATE = 'P';
+    private static final int OP_DELETE = 'D';
+
+    private static final int MAX_NAME_BYTES = 255 * 4;
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 100;
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FileLockTable fileLockTable;
+
+    @Autowired
+    private FileProcessingService fileProcessingService;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private LineIndexService lineIndexService;
+
+    @Autowired
+    @Qualifier("syncApplyExecutor")
+    private ExecutorService executor;
+
+    @Value("${file.upload.dir:uploads}")
+    private String uploadDir;
+
+    @Value("${sync.apply.batch-size:64}")
+    private int batchSize;
+
+    @Value("${sync.apply.queue-capacity:128}")
+    private int queueCapacity;
+
+    @Value("${sync.apply.buffers:32}")
+    private int bufferCount;
+
+    public void apply(InputStream in, OutputStream out, Long userId, String username)
+            throws IOException, InterruptedException {
+        Files.createDirectories(Paths.get(uploadDir));
+        new Pipeline(out, userId, username).run(new BufferedInputStream(in, CHUNK_SIZE));
+    }
+
+    private static class Operation {
+        static final Operation END = new Operation(-1, OP_END);
+
+        final int index;
+        final int type;
+        Long fileId;
+        String name;
+        long size;
+        Path tempPath;
+        Path storedPath;
+        Path obsoletePath;
+        String error;
+        Long quotaUserId;
+        long reservedBytes;
+        long freedBytes;
+
+        Operation(int index, int type) {
+            this.index = index;
+            this.type = type;
+        }
+
+        boolean hasData() {
+            return type == OP_UPLOAD || type == OP_UPDATE;
+        }
+    }
+
+    private static class Chunk {
+        final byte[] data;
+        final int length;
+
+        Chunk(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private class Pipeline {
+        private final OutputStream out;
+        private final Long userId;
+        private final String username;
+
+        private final BlockingQueue<Object> writeQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Operation> commitQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        private volatile boolean aborted;
+
+        Pipeline(OutputStream out, Long userId, String username) {
+            this.out = out;
+            this.userId = userId;
+            this.username = username;
+            for (int i = 0; i < bufferCount; i++) {
+                freeBuffers.add(new byte[CHUNK_SIZE]);
+            }
+        }
+
+        void run(InputStream in) throws IOException, InterruptedException {
+            Future<?> writer = executor.submit(this::runWriter);
+            Future<?> committer;
+            try {
+                // Commits as the caller, so the caller's next reads go to the primary (see ReplicaRoutingDataSource).
+                committer = executor.submit(new DelegatingSecurityContextCallable<>(this::runCommitter));
+            } catch (RuntimeException e) {
+                writer.cancel(true);
+                throw e;
+            }
+
+            String parseError = null;
+            try {
+                parse(in);
+            } catch (IOException | RuntimeException e) {
+                parseError = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            } finally {
+                if (!aborted) {
+                    put(writeQueue, Operation.END);
+                }
+            }
+
+            try {
+                writer.get();
+                committer.get();
+            } catch (ExecutionException e) {
+                aborted = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                throw new IOException("Sync apply failed", cause);
+            }
+
+            if (parseError != null) {
+                Map<String, Object> line = new LinkedHashMap<>();
+                line.put("status", "error");
+                line.put("message", parseError);
+                writeLine(line);
+                out.flush();
+            }
+        }
+
+        private void parse(InputStream in) throws IOException, InterruptedException {
+            for (byte b : MAGIC) {
+                if (in.read() != b) {
+                    throw new IOException("Not a sync operation stream");
+                }
+            }
+            if (in.read() != VERSION) {
+                throw new IOException("Unsupported sync operation stream version");
+            }
+
+            Set<String> existingNames = fileRepository.findByUploaderId(userId).stream()
+                    .map(FileMetadata::getName)
+                    .collect(Collectors.toCollection(HashSet::new));
+
+            for (int index = 0; ; index++) {
+                int type = in.read();
+                if (type == OP_END) {
+                    return;
+                }
+                if (type < 0) {
+                    throw new EOFException("Unexpected end of sync operation stream");
+                }
+
+                Operation op = new Operation(index, type);
+                switch (type) {
+                    case OP_UPLOAD -> {
+                        op.name = readName(in);
+                        op.size = readVarLong(in);
+                        if (op.size < 0) {
+                            op.error = "Invalid file size: " + op.size;
+                        } else if (!FileService.isValidName(op.name)) {
+                            op.error = "Invalid file name";
+                        } else if (!existingNames.add(op.name)) {
+                            op.error = "File with this name already exists";
+                        } else {
+                            // Charged before any data is written, so an over-quota upload is never stored.
+                            try {
+                                reserveQuota(op, userId, op.size);
+                            } catch (RuntimeException e) {
+                                op.error = e.getMessage();
+                            }
+                        }
+                    }
+                    case OP_UPDATE -> {
+                        op.fileId = readVarLong(in);
+                        op.name = readName(in);
+                        op.size = readVarLong(in);
+                        if (!FileService.isValidName(op.name)) {
+                            op.error = "Invalid file name";
+                        }
+                    }
+                    case OP_DELETE -> op.fileId = readVarLong(in);
+                    default -> throw new IOException("Unknown sync operation: " + type);
+                }
+
+                if (op.hasData() && op.size < 0) {
+                    // The operation gets its own error line. Where its data ends is unknown, so nothing after
+                    // it can be parsed.
+                    op.error = "Invalid file size: " + op.size;
+                    op.size = 0;
+                    put(writeQueue, op);
+                    throw new IOException("Invalid file size for " + op.name);
+                }
+
+                put(writeQueue, op);
+                if (op.hasData()) {
+                    long remaining = op.size;
+                    while (remaining > 0) {
+                        byte[] buffer = take(freeBuffers);
+                        int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            freeBuffers.add(buffer);
+                            throw new EOFException("Unexpected end of data for " + op.name);
+                        }
+                        put(writeQueue, new Chunk(buffer, read));
+                        remaining -= read;
+                    }
+                }
+            }
+        }
+
+        private Void runWriter() throws Exception {
+            Operation current = null;
+            OutputStream file = null;
+            long remaining = 0;
+            try {
+                while (true) {
+                    Object message = take(writeQueue);
+                    if (message == Operation.END) {
+                        if (current != null && remaining > 0) {
+                            // The parser stopped in the middle of this file's data.
+                            closeQuietly(file);
+                            current.error = "Incomplete file data";
+                            put(commitQueue, current);
+                        }
+                        put(commitQueue, Operation.END);
+                        return null;
+                    }
+
+                    if (message instanceof Chunk chunk) {
+                        if (current.error == null) {
+                            try {
+                                file.write(chunk.data, 0, chunk.length);
+                            } catch (IOException e) {
+                                current.error = e.getMessage();
+                                closeQuietly(file);
+                            }
+                        }
+                        freeBuffers.add(chunk.data);
+                        remaining -= chunk.length;
+                        if (remaining == 0) {
+                            if (current.error == null) {
+                                file.close();
+                            }
+                            put(commitQueue, current);
+                            current = null;
+                        }
+                        continue;
+                    }
+
+                    Operation op = (Operation) message;
+                    if (current != null) {
+                        throw new IllegalStateException("Operation " + op.index + " started inside the data of "
+                                + current.index);
+                    }
+                    if (!op.hasData()) {
+                        put(commitQueue, op);
+                        continue;
+                    }
+
+                    if (op.error == null) {
+                        try {
+                            op.tempPath = Files.createTempFile(Paths.get(uploadDir), ".sync-", ".part");
+                            file = Files.newOutputStream(op.tempPath);
+                        } catch (IOException e) {
+                            op.error = e.getMessage();
+                        }
+                    }
+                    if (op.size == 0) {
+                        if (op.error == null) {
+                            file.close();
+                        }
+                        put(commitQueue, op);
+                    } else {
+                        current = op;
+                        remaining = op.size;
+                    }
+                }
+            } catch (Exception e) {
+                aborted = true;
+                closeQuietly(file);
+                if (current != null && current.tempPath != null) {
+                    Files.deleteIfExists(current.tempPath);
+                }
+                throw e;
+            }
+        }
+
+        private Void runCommitter() throws Exception {
+            try {
+                List<Operation> batch = new ArrayList<>(batchSize);
+                boolean finished = false;
+                while (!finished) {
+                    batch.add(take(commitQueue));
+                    // Whatever queued up while the previous batch was committing goes into this one.
+                    commitQueue.drainTo(batch, batchSize - 1);
+                    if (batch.remove(Operation.END)) {
+                        finished = true;
+                    }
+                    if (!batch.isEmpty()) {
+                        commitBatch(batch);
+                        for (Operation op : batch) {
+                            writeLine(result(op));
+                        }
+                        out.flush();
+                    }
+                    batch.clear();
+                }
+                return null;
+            } catch (Exception e) {
+                aborted = true;
+                throw e;
+            }
+        }
+
+        private void commitBatch(List<Operation> batch) {
+            List<Operation> pending = batch.stream()
+                    .filter(op -> op.error == null)
+                    .collect(Collectors.toList());
+            // Like FileService.updateFile, the files being replaced or deleted stay write-locked from before
+            // their metadata is committed until the files are in place, so no reader sees one without the other.
+            // Taken in id order, so batches sharing files cannot deadlock.
+            List<FileLockTable.Lease> leases = new ArrayList<>();
+            try {
+                pending.stream()
+                        .filter(op -> op.type != OP_UPLOAD)
+                        .map(op -> op.fileId)
+                        .distinct()
+                        .sorted()
+                        .forEach(fileId -> leases.add(fileLockTable.writeLease(fileId)));
+
+                if (!pending.isEmpty()) {
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> applyMetadata(pending));
+                    } catch (RuntimeException e) {
+                        // Isolate the failing operations so the rest of the batch still goes through.
+                        for (Operation op : pending) {
+                            releaseUpdateQuota(op);
+                            try {
+                                transactionTemplate.executeWithoutResult(status -> applyMetadata(List.of(op)));
+                            } catch (RuntimeException single) {
+                                releaseUpdateQuota(op);
+                                op.error = single.getMessage();
+                            }
+                        }
+                    }
+                }
+
+                for (Operation op : batch) {
+                    publishFiles(op);
+                }
+            } finally {
+                leases.forEach(FileLockTable.Lease::close);
+            }
+        }
+
+        private void applyMetadata(List<Operation> ops) {
+            List<Long> targetIds = ops.stream()
+                    .filter(op -> op.type != OP_UPLOAD)
+                    .map(op -> op.fileId)
+                    .collect(Collectors.toList());
+            Map<Long, FileMetadata> targets = targetIds.isEmpty()
+                    ? Map.of()
+                    : fileRepository.findAllById(targetIds).stream()
+                            .collect(Collectors.toMap(FileMetadata::getFileId, Function.identity()));
+
+            List<FileMetadata> toSave = new ArrayList<>();
+            List<Operation> saved = new ArrayList<>();
+            List<FileMetadata> toDelete = new ArrayList<>();
+
+            for (Operation op : ops) {
+                op.storedPath = null;
+                op.obsoletePath = null;
+                op.freedBytes = 0;
+
+                if (op.type == OP_UPLOAD) {
+                    op.storedPath = Paths.get(uploadDir, userId + "_" + op.name);
+
+                    FileMetadata metadata = new FileMetadata();
+                    metadata.setName(op.name);
+                    metadata.setType(FileService.getExtension(op.name));
+                    metadata.setSize(op.size);
+                    metadata.setFilePath(op.storedPath.toString());
+                    metadata.setUploaderId(userId);
+                    metadata.setUploaderName(username);
+                    metadata.setEditorId(userId);
+                    metadata.setEditorName(username);
+                    toSave.add(metadata);
+                    saved.add(op);
+                    continue;
+                }
+
+                FileMetadata metadata = targets.get(op.fileId);
+                if (metadata == null) {
+                    throw new RuntimeException("File not found");
+                }
+
+                long oldSize = metadata.getSize() != null ? metadata.getSize() : 0;
+                if (op.type == OP_UPDATE) {
+                    long growth = op.size - oldSize;
+                    reserveQuota(op, metadata.getUploaderId(), growth);
+                    op.quotaUserId = metadata.getUploaderId();
+                    op.freedBytes = -growth;
+
+                    op.storedPath = Paths.get(uploadDir, metadata.getUploaderId() + "_" + op.name);
+                    op.obsoletePath = Paths.get(metadata.getFilePath());
+
+                    metadata.setName(op.name);
+                    metadata.setType(FileService.getExtension(op.name));
+                    metadata.setSize(op.size);
+                    metadata.setFilePath(op.storedPath.toString());
+                    metadata.setEditorId(userId);
+                    metadata.setEditorName(username);
+                    metadata.contentReplaced();
+                    toSave.add(metadata);
+                    saved.add(op);
+                } else {
+                    if (!metadata.getUploaderId().equals(userId)) {
+                        throw new RuntimeException("Access denied");
+                    }
+                    op.obsoletePath = Paths.get(metadata.getFilePath());
+                    op.quotaUserId = metadata.getUploaderId();
+                    op.freedBytes = oldSize;
+                    toDelete.add(metadata);
+                }
+            }
+
+            List<FileMetadata> results = fileRepository.saveAll(toSave);
+            for (int i = 0; i < saved.size(); i++) {
+                saved.get(i).fileId = results.get(i).getFileId();
+                fileProcessingService.enqueue(results.get(i));
+            }
+            if (!toDelete.isEmpty()) {
+                fileRepository.deleteAllInBatch(toDelete);
+            }
+        }
+
+        private void publishFiles(Operation op) {
+            try {
+                if (op.error != null) {
+                    if (op.reservedBytes > 0) {
+                        quotaService.release(op.quotaUserId, op.reservedBytes);
+                        op.reservedBytes = 0;
+                    }
+                    if (op.tempPath != null) {
+                        Files.deleteIfExists(op.tempPath);
+                    }
+                    return;
+                }
+                if (op.quotaUserId != null) {
+                    quotaService.release(op.quotaUserId, op.freedBytes);
+                }
+                moveIntoPlace(op);
+            } catch (IOException e) {
+                op.error = "Metadata committed but file could not be stored: " + e.getMessage();
+            }
+        }
+
+        private void moveIntoPlace(Operation op) throws IOException {
+            if (op.storedPath != null) {
+                Files.move(op.tempPath, op.storedPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (op.obsoletePath != null && !op.obsoletePath.equals(op.storedPath)) {
+                Files.deleteIfExists(op.obsoletePath);
+            }
+            if (op.obsoletePath != null) {
+                lineIndexService.deleteIndex(op.fileId);
+            }
+        }
+
+        private void reserveQuota(Operation op, Long ownerId, long bytes) {
+            if (bytes > 0) {
+                quotaService.reserve(ownerId, bytes);
+                op.quotaUserId = ownerId;
+                op.reservedBytes = bytes;
+            }
+        }
+
+        /**
+         * Undoes the growth an update reserved inside a rolled-back transaction; it is reserved again on retry.
+         */
+        private void releaseUpdateQuota(Operation op) {
+            if (op.type == OP_UPDATE && op.reservedBytes > 0) {
+                quotaService.release(op.quotaUserId, op.reservedBytes);
+                op.reservedBytes = 0;
+            }
+        }
+
+        private Map<String, Object> result(Operation op) {
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("index", op.index);
+            line.put("op", op.type == OP_UPLOAD ? "upload" : op.type == OP_UPDATE ? "update" : "delete");
+            if (op.name != null) {
+                line.put("name", op.name);
+            }
+            line.put("fileId", op.fileId);
+            line.put("status", op.error == null ? "ok" : "error");
+            if (op.error != null) {
+                line.put("message", op.error);
+            }
+            return line;
+        }
+
+        private void writeLine(Map<String, Object> line) throws IOException {
+            out.write(objectMapper.writeValueAsBytes(line));
+            out.write('\n');
+        }
+
+        private <T> void put(BlockingQueue<T> queue, T item) throws InterruptedException {
+            while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                checkAborted();
+            }
+        }
+
+        private <T> T take(BlockingQueue<T> queue) throws InterruptedException {
+            T item;
+            while ((item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)) == null) {
+                checkAborted();
+            }
+            return item;
+        }
+
+        private void checkAborted() {
+            if (aborted) {
+                throw new IllegalStateException("Sync apply aborted");
+            }
+        }
+    }
+
+    private static String readName(InputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length == 0 || length > MAX_NAME_BYTES) {
+            throw new IOException("Invalid file name length: " + length);
+        }
+        byte[] bytes = in.readNBytes((int) length);
+        if (bytes.length < length) {
+            throw new EOFException("Unexpected end of sync operation stream");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of sync operation stream");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt varint in sync operation stream");
+    }
+
+    private static void closeQuietly(OutputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package org.elsveys.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding for lists of file names exchanged by the sync endpoints.
+ *
+ * A manifest starts with the magic bytes "FMM" and a version byte, followed by one or more lists.
+ * Every name is front-coded against the previous name of the same list: a varint header holding
+ * {@code suffixLength + 1}, a varint with the number of leading bytes shared with the previous name,
+ * and the remaining UTF-8 bytes. A header of 0 ends the list, so lists can be written and parsed
+ * without knowing their size in advance.
+ */
+public final class SyncManifest {
+
+    public static final String MEDIA_TYPE = "application/vnd.filemanager.manifest";
+
+    private static final byte[] MAGIC = {'F', 'M', 'M'};
+    private static final int VERSION = 1;
+    private static final int MAX_NAME_BYTES = 64 * 1024;
+
+    private SyncManifest() {}
+
+    public static class Reader {
+        private final InputStream in;
+        private byte[] previous = new byte[256];
+        private int previousLength;
+        private boolean endOfList;
+
+        public Reader(InputStream in) throws IOException {
+            this.in = in;
+            for (byte b : MAGIC) {
+                if (readByte() != b) {
+                    throw new IOException("Not a sync manifest");
+                }
+            }
+            int version = readByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported manifest version: " + version);
+            }
+        }
+
+        /**
+         * Returns the next name of the current list, or null once its end marker has been read.
+         * The following call starts reading the next list.
+         */
+        public String next() throws IOException {
+            if (endOfList) {
+                endOfList = false;
+                previousLength = 0;
+            }
+
+            int header = readVarInt();
+            if (header == 0) {
+                endOfList = true;
+                return null;
+            }
+
+            int suffixLength = header - 1;
+            int prefixLength = readVarInt();
+            int length = prefixLength + suffixLength;
+            if (prefixLength > previousLength || length > MAX_NAME_BYTES) {
+                throw new IOException("Corrupt manifest entry");
+            }
+            if (length > previous.length) {
+                previous = Arrays.copyOf(previous, Math.max(length, previous.length * 2));
+            }
+
+            readFully(previous, prefixLength, suffixLength);
+            previousLength = length;
+            return new String(previous, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Corrupt manifest varint");
+        }
+
+        private int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Unexpected end of manifest");
+            }
+            return b;
+        }
+
+        private void readFully(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.readNBytes(buffer, offset, length);
+            if (read < length) {
+                throw new EOFException("Unexpected end of manifest");
+            }
+        }
+    }
+
+    public static class Writer {
+        private final OutputStream out;
+        private byte[] previous = new byte[0];
+
+        public Writer(OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+
+        public void writeName(String name) throws IOException {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > MAX_NAME_BYTES) {
+                throw new IOException("Name too long for manifest: " + name);
+            }
+
+            int prefixLength = Arrays.mismatch(previous, bytes);
+            if (prefixLength < 0) {
+                prefixLength = bytes.length;
+            }
+
+            writeVarInt(bytes.length - prefixLength + 1);
+            writeVarInt(prefixLength);
+            out.write(bytes, prefixLength, bytes.length - prefixLength);
+            previous = bytes;
+        }
+
+        public void endList() throws IOException {
+            writeVarInt(0);
+            previous = new byte[0];
+        }
+
+        public void writeList(Iterable<String> names) throws IOException {
+            for (String name : names) {
+                writeName(name);
+            }
+            endList();
+        }
+
+        private void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+    }
+}
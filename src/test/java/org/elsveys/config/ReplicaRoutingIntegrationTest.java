@@ -0,0 +1,254 @@
+package org.elsveys.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.security.JwtTokenProvider;
+import org.elsveys.security.UserPrincipal;
+import org.elsveys.service.FileProcessingService;
+import org.elsveys.service.FileService;
+import org.elsveys.service.SortFilterService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application against two H2 databases, a primary and a replica. Nothing replicates between them
+ * on its own: {@link #replicate()} copies the primary over, so anything written afterwards is exactly what
+ * a lagging replica would be missing. The second-level and query caches stay on, as in production.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReplicaRoutingIntegrationTest.PRIMARY_URL,
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "jwt.secret=routing-test-secret-routing-test-secret-routing-test-secret-routing-0123",
+        "jwt.expiration=3600000",
+        "files.processing.poll-interval-ms=3600000",
+        "files.quota.flush-interval-ms=3600000",
+        "datasource.routing.enabled=true",
+        "datasource.routing.replicas[0].url=" + ReplicaRoutingIntegrationTest.REPLICA_URL,
+        "datasource.routing.replicas[0].username=sa",
+        "datasource.routing.replicas[0].password=",
+        "datasource.routing.lag-query=select seconds from replica_lag",
+        "datasource.routing.lag-check-interval-ms=3600000",
+        "datasource.routing.max-lag=2s",
+        "datasource.routing.stickiness=500ms"
+})
+@AutoConfigureMockMvc
+class ReplicaRoutingIntegrationTest {
+
+    static final String PRIMARY_URL = "jdbc:h2:mem:routing-primary;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+
+    private static final long WRITER = 1L;
+    private static final long READER = 2L;
+
+    @TempDir
+    static Path tempDir;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> tempDir.resolve("uploads").toString());
+    }
+
+    @MockitoBean
+    private FileProcessingService fileProcessingService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private SortFilterService sortFilterService;
+
+    @Autowired
+    @Qualifier("routingDataSource")
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private JwtTokenProvider tokenProvider;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private final JdbcTemplate primary = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", ""));
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+
+    @BeforeEach
+    void setUp() throws Exception {
+        // Lets earlier writes in this class fall out of the stickiness window.
+        Thread.sleep(600);
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void testReadOnlyCallsGoToReplicaAndWritesToPrimary() throws Exception {
+        FileMetadata replicated = upload(WRITER);
+        replicate();
+        FileMetadata fresh = upload(WRITER);
+
+        assertEquals(1, count(primary, fresh.getFileId()));
+        assertEquals(0, count(replica, fresh.getFileId()));
+
+        actAs(READER);
+        assertTrue(contains(sortFilterService.sortByModifiedDate(false), replicated));
+        assertFalse(contains(sortFilterService.sortByModifiedDate(false), fresh));
+        assertFalse(contains(fileService.listAllFiles(), fresh));
+        assertFalse(contains(sortFilterService.getAllFilesForUser(WRITER), fresh));
+        RuntimeException e = assertThrows(RuntimeException.class, () -> fileService.getFileMetadata(fresh.getFileId()));
+        assertEquals("File not found", e.getMessage());
+    }
+
+    @Test
+    void testWriterReadsOwnWritesFromPrimaryUntilStickinessExpires() throws Exception {
+        upload(WRITER);
+        replicate();
+        FileMetadata fresh = upload(WRITER);
+
+        actAs(WRITER);
+        assertTrue(contains(sortFilterService.sortByModifiedDate(true), fresh));
+        assertEquals(fresh.getName(), fileService.getFileMetadata(fresh.getFileId()).getName());
+
+        Thread.sleep(600);
+        // Not a cached query, so it shows where the read went.
+        assertFalse(contains(fileService.listAllFiles(), fresh));
+    }
+
+    @Test
+    void testReplicaReadsAreNotCachedOverOwnWrites() throws Exception {
+        FileMetadata renamed = upload(WRITER);
+        upload(WRITER);
+        replicate();
+
+        actAs(WRITER);
+        fileService.updateFile(renamed.getFileId(),
+                new MockMultipartFile("file", "renamed.kt", "text/plain", "new content".getBytes()), WRITER, "user" + WRITER);
+        FileMetadata fresh = upload(WRITER);
+
+        // As once the cached entry expires: the next read loads the row again, here from the replica.
+        entityManagerFactory.getCache().evict(FileMetadata.class, renamed.getFileId());
+        actAs(READER);
+        assertEquals(renamed.getName(), fileService.getFileMetadata(renamed.getFileId()).getName());
+        assertFalse(contains(sortFilterService.sortByModifiedDate(false), fresh));
+
+        actAs(WRITER);
+        assertEquals("renamed.kt", fileService.getFileMetadata(renamed.getFileId()).getName());
+        assertTrue(contains(sortFilterService.sortByModifiedDate(false), fresh));
+    }
+
+    @Test
+    void testRequestThatReadsThenWritesWritesToPrimary() throws Exception {
+        FileMetadata doomed = upload(WRITER);
+        replicate();
+        Thread.sleep(600);
+        // The endpoint's ownership check then loads the row, from the replica.
+        entityManagerFactory.getCache().evict(FileMetadata.class, doomed.getFileId());
+
+        mockMvc.perform(delete("/api/files/" + doomed.getFileId())
+                        .header("Authorization", "Bearer " + tokenProvider.generateToken(WRITER, "user" + WRITER)))
+                .andExpect(status().isOk());
+
+        assertEquals(0, count(primary, doomed.getFileId()));
+        assertEquals(1, count(replica, doomed.getFileId()));
+    }
+
+    @Test
+    void testLaggingReplicaIsTakenOutOfRotation() throws Exception {
+        upload(WRITER);
+        replicate();
+        FileMetadata fresh = upload(WRITER);
+        actAs(READER);
+
+        replica.update("update replica_lag set seconds = 10");
+        routingDataSource.checkReplicas();
+        double before = meterRegistry.counter("datasource.routing", "target", "primary", "reason", "no-replica").count();
+
+        assertTrue(contains(fileService.listAllFiles(), fresh));
+        assertEquals(before + 1, meterRegistry.counter("datasource.routing", "target", "primary", "reason", "no-replica").count());
+
+        replica.update("update replica_lag set seconds = 0");
+        routingDataSource.checkReplicas();
+        assertFalse(contains(fileService.listAllFiles(), fresh));
+    }
+
+    @Test
+    void testUnreachableReplicaIsSkipped() throws Exception {
+        upload(WRITER);
+        replicate();
+        FileMetadata fresh = upload(WRITER);
+        actAs(READER);
+
+        replica.execute("drop table replica_lag");
+        routingDataSource.checkReplicas();
+
+        assertTrue(contains(fileService.listAllFiles(), fresh));
+    }
+
+    private FileMetadata upload(long userId) throws Exception {
+        actAs(userId);
+        try {
+            byte[] data = "content".getBytes();
+            return fileService.uploadStream(new ByteArrayInputStream(data), UUID.randomUUID() + ".kt",
+                    data.length, userId, "user" + userId);
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+
+    private void replicate() {
+        String script = tempDir.resolve("primary.sql").toString();
+        primary.execute("script to '" + script + "'");
+        replica.execute("drop all objects");
+        replica.execute("runscript from '" + script + "'");
+        replica.execute("create table replica_lag (seconds double precision)");
+        replica.update("insert into replica_lag values (0)");
+        routingDataSource.checkReplicas();
+    }
+
+    private static void actAs(long userId) {
+        UserPrincipal principal = new UserPrincipal(userId, "user" + userId);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, List.of()));
+    }
+
+    private static int count(JdbcTemplate jdbc, Long fileId) {
+        return jdbc.queryForObject("select count(*) from file_metadata where file_id = ?", Integer.class, fileId);
+    }
+
+    private static boolean contains(List<FileMetadata> files, FileMetadata file) {
+        return files.stream().anyMatch(f -> f.getFileId().equals(file.getFileId()));
+    }
+}
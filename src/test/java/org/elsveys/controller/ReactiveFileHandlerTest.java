@@ -0,0 +1,307 @@
+package org.elsveys.controller;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.contoller.ReactiveFileHandler;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.security.JwtTokenProvider;
+import org.elsveys.security.RateLimitFilter;
+import org.elsveys.security.ReactiveRequestFilter;
+import org.elsveys.security.UploadAdmission;
+import org.elsveys.security.UploadAdmissionFilter;
+import org.elsveys.security.UserPrincipal;
+import org.elsveys.service.FileLockTable;
+import org.elsveys.service.FileService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveFileHandlerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Mock
+    private FileService fileService;
+
+    @Mock
+    private JwtTokenProvider tokenProvider;
+
+    @Mock
+    private RateLimitFilter rateLimitFilter;
+
+    @Mock
+    private UploadAdmissionFilter uploadAdmissionFilter;
+
+    @Spy
+    private FileLockTable fileLockTable;
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @InjectMocks
+    private ReactiveFileHandler reactiveFileHandler;
+
+    @InjectMocks
+    private ReactiveRequestFilter reactiveRequestFilter;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(fileLockTable, "meterRegistry", meterRegistry);
+        client = WebTestClient.bindToRouterFunction(reactiveFileHandler.routes())
+                .webFilter(reactiveRequestFilter)
+                .configureClient()
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(1024 * 1024))
+                .build();
+    }
+
+    @Test
+    void testDownloadStreamsFileContent() throws Exception {
+        byte[] content = new byte[300 * 1024];
+        new Random(7).nextBytes(content);
+        Path stored = Files.write(tempDir.resolve("1_large.bin"), content);
+
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(1L);
+        metadata.setName("large.bin");
+        metadata.setType("bin");
+        metadata.setFilePath(stored.toString());
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(fileService.getFileMetadata(1L)).thenReturn(metadata);
+
+        byte[] body = client.get().uri("/api/files/download/1")
+                .header("Authorization", "Bearer token")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentLength(content.length)
+                .expectBody(byte[].class)
+                .returnResult()
+                .getResponseBody();
+
+        assertArrayEquals(content, body);
+    }
+
+    @Test
+    void testDownloadWaitsForWriterAndHoldsReadLockUntilSent() throws Exception {
+        Path stored = Files.write(tempDir.resolve("1_notes.txt"), "content".getBytes());
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(1L);
+        metadata.setName("notes.txt");
+        metadata.setType("txt");
+        metadata.setFilePath(stored.toString());
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(fileService.getFileMetadata(1L)).thenReturn(metadata);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> writer = executor.submit(() -> fileLockTable.withWriteLock(1L, () -> {
+                writing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }));
+            assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+            CountDownLatch downloaded = new CountDownLatch(1);
+            Thread download = new Thread(() -> {
+                client.get().uri("/api/files/download/1")
+                        .header("Authorization", "Bearer token")
+                        .exchange()
+                        .expectStatus().isOk()
+                        .expectBody(String.class).isEqualTo("content");
+                downloaded.countDown();
+            });
+            download.start();
+            assertFalse(downloaded.await(200, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            writer.get(5, TimeUnit.SECONDS);
+            assertTrue(downloaded.await(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("written", fileLockTable.withWriteLock(1L, () -> "written"));
+    }
+
+    @Test
+    void testDownloadOfReplacedContentFails() throws Exception {
+        Path stored = Files.write(tempDir.resolve("1_notes.txt"), "content".getBytes());
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(1L);
+        metadata.setName("notes.txt");
+        metadata.setType("txt");
+        metadata.setFilePath(stored.toString());
+        FileMetadata replaced = new FileMetadata();
+        replaced.setFileId(1L);
+        replaced.contentReplaced();
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(fileService.getFileMetadata(1L)).thenReturn(metadata, replaced);
+
+        client.get().uri("/api/files/download/1")
+                .header("Authorization", "Bearer token")
+                .exchange()
+                .expectStatus().is5xxServerError();
+    }
+
+    @Test
+    void testDownloadWithoutTokenIsRejected() {
+        client.get().uri("/api/files/download/1")
+                .exchange()
+                .expectStatus().isUnauthorized();
+
+        verify(fileService, never()).getFileMetadata(any());
+    }
+
+    @Test
+    void testUploadWritesPartToReservedPath() throws Exception {
+        byte[] content = "streamed upload".getBytes();
+        Path target = tempDir.resolve("1_notes.txt");
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(fileService.reserveUploadPath("notes.txt", 1L)).thenReturn(target);
+        when(fileService.saveUploadedFile(eq("notes.txt"), eq(target), eq((long) content.length), eq(1L), anyString()))
+                .thenReturn(new FileMetadata());
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", new ByteArrayResource(content) {
+            @Override
+            public String getFilename() {
+                return "notes.txt";
+            }
+        });
+
+        client.post().uri("/api/files/upload")
+                .header("Authorization", "Bearer token")
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isOk();
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testUploadWithInvalidNameIsRejected() {
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", new ByteArrayResource("x".getBytes()) {
+            @Override
+            public String getFilename() {
+                return "..";
+            }
+        });
+
+        client.post().uri("/api/files/upload")
+                .header("Authorization", "Bearer token")
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("Invalid file name");
+
+        verify(fileService, never()).reserveUploadPath(anyString(), any());
+    }
+
+    @Test
+    void testRateLimitedRequestIsRejected() {
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(rateLimitFilter.acquire(eq("GET"), eq("/api/files/download/1"), any(), any())).thenReturn(3L);
+
+        client.get().uri("/api/files/download/1")
+                .header("Authorization", "Bearer token")
+                .exchange()
+                .expectStatus().isEqualTo(429)
+                .expectHeader().valueEquals("Retry-After", "3");
+
+        verify(fileService, never()).getFileMetadata(any());
+    }
+
+    @Test
+    void testUploadOverCapacityIsRejectedBeforeBodyIsRead() {
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(uploadAdmissionFilter.appliesTo("POST", "/api/files/upload")).thenReturn(true);
+        UploadAdmission.Ticket rejected = mock(UploadAdmission.Ticket.class);
+        when(rejected.getRetryAfterSeconds()).thenReturn(2L);
+        when(uploadAdmissionFilter.admit(eq(1L), anyLong())).thenReturn(rejected);
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", new ByteArrayResource("x".getBytes()) {
+            @Override
+            public String getFilename() {
+                return "notes.txt";
+            }
+        });
+
+        client.post().uri("/api/files/upload")
+                .header("Authorization", "Bearer token")
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isEqualTo(503)
+                .expectHeader().valueEquals("Retry-After", "2");
+
+        verify(fileService, never()).reserveUploadPath(anyString(), any());
+    }
+
+    @Test
+    void testUploadDuplicateNameReturnsBadRequest() {
+        when(tokenProvider.resolvePrincipal("token")).thenReturn(new UserPrincipal(1L, "user"));
+        when(fileService.reserveUploadPath("notes.txt", 1L))
+                .thenThrow(new RuntimeException("File with this name already exists"));
+
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", new ByteArrayResource("x".getBytes()) {
+            @Override
+            public String getFilename() {
+                return "notes.txt";
+            }
+        });
+
+        client.post().uri("/api/files/upload")
+                .header("Authorization", "Bearer token")
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody(String.class).isEqualTo("File with this name already exists");
+    }
+}
@@ -1,27 +1,35 @@
 package org.elsveys.controller;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.elsveys.contoller.SyncController;
 import org.elsveys.model.FileMetadata;
 import org.elsveys.service.FileService;
+import org.elsveys.service.SyncManifest;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -34,6 +42,9 @@ class SyncControllerTest {
     @Mock
     private FileService fileService;
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private SyncController syncController;
 
@@ -151,4 +162,44 @@ class SyncControllerTest {
                 .andExpect(jsonPath("$.toUpload.length()").value(0))
                 .andExpect(jsonPath("$.toDownload.length()").value(2));
     }
-}
\ No newline at end of file
+
+    @Test
+    void testCompareFilesWithManifest() throws Exception {
+        List<FileMetadata> allFiles = Arrays.asList(file1, file2, file3);
+        when(fileService.listAllFiles()).thenReturn(allFiles);
+
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        new SyncManifest.Writer(request).writeList(Arrays.asList("user1_file.kt", "local_only.kt"));
+
+        byte[] body = mockMvc.perform(post("/api/sync/compare")
+                        .header("Authorization", "Bearer test-token")
+                        .contentType(SyncManifest.MEDIA_TYPE)
+                        .content(request.toByteArray()))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(SyncManifest.MEDIA_TYPE))
+                .andReturn().getResponse().getContentAsByteArray();
+
+        SyncManifest.Reader reader = new SyncManifest.Reader(new ByteArrayInputStream(body));
+        assertEquals(List.of("local_only.kt"), readList(reader));
+        assertEquals(List.of("user2_file.jpg", "user2_another.kt"), readList(reader));
+    }
+
+    @Test
+    void testCompareFilesWithInvalidManifest() throws Exception {
+        when(fileService.listAllFiles()).thenReturn(Arrays.asList(file1));
+
+        mockMvc.perform(post("/api/sync/compare")
+                        .header("Authorization", "Bearer test-token")
+                        .contentType(SyncManifest.MEDIA_TYPE)
+                        .content(new byte[]{1, 2, 3}))
+                .andExpect(status().isBadRequest());
+    }
+
+    private List<String> readList(SyncManifest.Reader reader) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (String name = reader.next(); name != null; name = reader.next()) {
+            names.add(name);
+        }
+        return names;
+    }
+}
@@ -0,0 +1,53 @@
+package org.elsveys.jfr;
+
+import jdk.jfr.Recording;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JfrSummaryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSummarizeGroupsEventsByOperation() throws Exception {
+        Path file = tempDir.resolve("test.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(FileOperationEvent.NAME).withThreshold(Duration.ZERO);
+            recording.start();
+
+            for (int i = 0; i < 3; i++) {
+                FileOperationEvent event = FileOperationEvent.start("upload");
+                event.setFileId((long) i);
+                event.addBytes(100);
+                event.db(() -> null);
+                event.finish(true);
+            }
+            FileOperationEvent failed = FileOperationEvent.start("download");
+            assertThrows(IOException.class, () -> failed.storage(() -> {
+                throw new IOException("disk gone");
+            }));
+            failed.finish(false);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        Map<String, JfrSummary.OperationStats> stats = JfrSummary.summarize(file);
+
+        assertEquals(3, stats.get("upload").getCount());
+        assertEquals(300, stats.get("upload").getBytes());
+        assertEquals(0, stats.get("upload").getErrors());
+        assertTrue(stats.get("upload").percentile(50) <= stats.get("upload").percentile(99));
+        assertEquals(1, stats.get("download").getCount());
+        assertEquals(1, stats.get("download").getErrors());
+        assertTrue(stats.get("download").getAverageStorageNanos() > 0);
+    }
+}
@@ -0,0 +1,241 @@
+package org.elsveys.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Open-model load generator for a running instance.
+ *
+ * Every virtual client runs on its own virtual thread and sends requests on a fixed schedule of
+ * {@code ratePerClient} requests per second, picking the operation from a weighted mix. Latency is
+ * measured from the moment a request was due to be sent, not from when it was actually sent, so a
+ * stalled server is charged for the requests that queued up behind the stall (no coordinated omission).
+ */
+public class LoadGenerator {
+
+    public enum Operation { UPLOAD, DOWNLOAD, LIST, SYNC }
+
+    public static class Settings {
+        int clients = 50;
+        double ratePerClient = 5;
+        Duration warmup = Duration.ofSeconds(5);
+        Duration duration = Duration.ofSeconds(30);
+        int fileSize = 64 * 1024;
+        Map<Operation, Integer> mix = new LinkedHashMap<>(Map.of(
+                Operation.UPLOAD, 2, Operation.DOWNLOAD, 4, Operation.LIST, 2, Operation.SYNC, 2));
+
+        static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.clients = Integer.getInteger("load.clients", settings.clients);
+            settings.ratePerClient = Double.parseDouble(System.getProperty("load.rate", String.valueOf(settings.ratePerClient)));
+            settings.warmup = Duration.ofSeconds(Long.getLong("load.warmup", settings.warmup.toSeconds()));
+            settings.duration = Duration.ofSeconds(Long.getLong("load.duration", settings.duration.toSeconds()));
+            settings.fileSize = Integer.getInteger("load.file-size", settings.fileSize);
+            String mix = System.getProperty("load.mix");
+            if (mix != null) {
+                settings.mix.clear();
+                for (String entry : mix.split(",")) {
+                    String[] parts = entry.split(":");
+                    settings.mix.put(Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+                }
+            }
+            return settings;
+        }
+    }
+
+    public static class Stats {
+        private final Histogram latency = new ConcurrentHistogram(TimeUnit.MINUTES.toNanos(5), 3);
+        private final LongAdder errors = new LongAdder();
+
+        public long getCount() { return latency.getTotalCount(); }
+
+        public long getErrors() { return errors.sum(); }
+
+        public double percentileMillis(double percentile) {
+            return latency.getValueAtPercentile(percentile) / 1_000_000.0;
+        }
+
+        public double maxMillis() {
+            return latency.getMaxValue() / 1_000_000.0;
+        }
+    }
+
+    private final String baseUrl;
+    private final Settings settings;
+    private final HttpClient http;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<Operation, Stats> stats = new LinkedHashMap<>();
+    private final byte[] content;
+
+    public LoadGenerator(String baseUrl, Settings settings) {
+        this.baseUrl = baseUrl;
+        this.settings = settings;
+        this.http = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new Stats());
+        }
+        content = new byte[settings.fileSize];
+        ThreadLocalRandom.current().nextBytes(content);
+    }
+
+    public Map<Operation, Stats> run() throws Exception {
+        long intervalNanos = (long) (1_000_000_000L / settings.ratePerClient);
+        long start = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        long measureFrom = start + settings.warmup.toNanos();
+        long end = measureFrom + settings.duration.toNanos();
+
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> running = new ArrayList<>();
+            for (int i = 0; i < settings.clients; i++) {
+                Client client = new Client(i);
+                // Spread the clients' schedules over one interval instead of firing them all at once.
+                long offset = intervalNanos * i / settings.clients;
+                running.add(clients.submit(() -> {
+                    client.run(start + offset, intervalNanos, measureFrom, end);
+                    return null;
+                }));
+            }
+            for (Future<?> future : running) {
+                future.get();
+            }
+        }
+        return stats;
+    }
+
+    public String report() {
+        double seconds = settings.duration.toNanos() / 1e9;
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d clients x %.1f req/s for %ds (after %ds warmup), %d byte files%n",
+                settings.clients, settings.ratePerClient, settings.duration.toSeconds(),
+                settings.warmup.toSeconds(), settings.fileSize));
+        report.append(String.format("%-10s %10s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        for (Map.Entry<Operation, Stats> entry : stats.entrySet()) {
+            Stats s = entry.getValue();
+            report.append(String.format("%-10s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    entry.getKey().name().toLowerCase(), s.getCount(), s.getErrors(), s.getCount() / seconds,
+                    s.percentileMillis(50), s.percentileMillis(99), s.percentileMillis(99.9), s.maxMillis()));
+        }
+        return report.toString();
+    }
+
+    private class Client {
+        private final int id;
+        private final List<Long> uploaded = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private String token;
+        private int sequence;
+
+        Client(int id) {
+            this.id = id;
+        }
+
+        void run(long start, long intervalNanos, long measureFrom, long end) throws Exception {
+            String username = "load-" + id + "-" + System.nanoTime();
+            JsonNode auth = send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/auth/register"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(
+                            Map.of("username", username, "password", "load-test-password", "email", username + "@load.test"))))
+                    .build());
+            token = auth.get("token").asText();
+            upload();
+
+            int totalWeight = settings.mix.values().stream().mapToInt(Integer::intValue).sum();
+            for (long due = start; due < end; due += intervalNanos) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+
+                Operation operation = pick(totalWeight);
+                boolean ok;
+                try {
+                    ok = execute(operation);
+                } catch (IOException e) {
+                    ok = false;
+                }
+                if (due >= measureFrom) {
+                    Stats s = stats.get(operation);
+                    s.latency.recordValue(Math.min(System.nanoTime() - due, s.latency.getHighestTrackableValue()));
+                    if (!ok) {
+                        s.errors.increment();
+                    }
+                }
+            }
+        }
+
+        private Operation pick(int totalWeight) {
+            int roll = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (Map.Entry<Operation, Integer> entry : settings.mix.entrySet()) {
+                roll -= entry.getValue();
+                if (roll < 0) {
+                    return entry.getKey();
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        private boolean execute(Operation operation) throws IOException, InterruptedException {
+            return switch (operation) {
+                case UPLOAD -> upload();
+                case DOWNLOAD -> status(HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/download/"
+                        + uploaded.get(ThreadLocalRandom.current().nextInt(uploaded.size()))))) == 200;
+                case LIST -> status(HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/list"))) == 200;
+                case SYNC -> status(HttpRequest.newBuilder(URI.create(baseUrl + "/api/sync/compare"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                objectMapper.writeValueAsString(Map.of("localFiles", names))))) == 200;
+            };
+        }
+
+        private boolean upload() throws IOException, InterruptedException {
+            String name = "load-" + id + "-" + (sequence++) + ".bin";
+            HttpResponse<String> response = http.send(HttpRequest.newBuilder(URI.create(baseUrl + "/api/files/stream?name=" + name))
+                    .header("Authorization", "Bearer " + token)
+                    .header("Content-Type", "application/octet-stream")
+                    .PUT(HttpRequest.BodyPublishers.ofByteArray(content))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                return false;
+            }
+            uploaded.add(objectMapper.readTree(response.body()).get("fileId").asLong());
+            names.add(name);
+            return true;
+        }
+
+        private int status(HttpRequest.Builder request) throws IOException, InterruptedException {
+            return http.send(request.header("Authorization", "Bearer " + token).build(),
+                    HttpResponse.BodyHandlers.discarding()).statusCode();
+        }
+
+        private JsonNode send(HttpRequest request) throws IOException, InterruptedException {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                throw new IOException("HTTP " + response.statusCode() + ": " + response.body());
+            }
+            return objectMapper.readTree(response.body());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.elsveys.load;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Starts the whole application on a random port against an in-memory H2 database in PostgreSQL mode
+ * and drives it with {@link LoadGenerator}. Excluded from the default build; run with
+ * {@code mvn -Pload-test test}, tuning the load with {@code -Dload.clients}, {@code -Dload.rate},
+ * {@code -Dload.duration}, {@code -Dload.warmup}, {@code -Dload.file-size} and {@code -Dload.mix=upload:2,download:4}.
+ * The report is printed and written to {@code target/load-report.txt}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:load;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "jwt.secret=load-test-secret-load-test-secret-load-test-secret-load-test-secret-0123",
+        "jwt.expiration=3600000",
+        "ratelimit.enabled=false"
+})
+class LoadTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @LocalServerPort
+    private int port;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> uploadDir.toString());
+    }
+
+    @Test
+    void mixedWorkload() throws Exception {
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + port, LoadGenerator.Settings.fromSystemProperties());
+        Map<LoadGenerator.Operation, LoadGenerator.Stats> stats = generator.run();
+
+        String report = generator.report();
+        System.out.println(report);
+        Files.createDirectories(Paths.get("target"));
+        Files.writeString(Paths.get("target", "load-report.txt"), report);
+
+        for (Map.Entry<LoadGenerator.Operation, LoadGenerator.Stats> entry : stats.entrySet()) {
+            LoadGenerator.Stats s = entry.getValue();
+            assertTrue(s.getCount() > 0, "no " + entry.getKey() + " requests completed");
+            assertTrue(s.getErrors() <= s.getCount() / 100, entry.getKey() + " error rate above 1%");
+        }
+    }
+}
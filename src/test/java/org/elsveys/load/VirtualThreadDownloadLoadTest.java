@@ -0,0 +1,86 @@
+package org.elsveys.load;
+
+import org.elsveys.FileManagerApplication;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Compares Tomcat on platform threads with Tomcat on virtual threads for the real {@code /api/files/download}
+ * path. The application is started twice, with {@code spring.threads.virtual.enabled} false and then true, and
+ * each instance is driven by {@link LoadGenerator} with a download-only mix. Excluded from the default build;
+ * run with {@code mvn -Pload-test test -Dtest=VirtualThreadDownloadLoadTest}, tuning the load with the
+ * {@code -Dload.*} properties described on {@link LoadTest} and the platform worker pool with
+ * {@code -Dload.platform-threads} (Tomcat's default is 200). Files default to 1 MB.
+ * The reports are printed and written to {@code target/virtual-thread-report.txt}.
+ */
+@Tag("load")
+class VirtualThreadDownloadLoadTest {
+
+    @TempDir
+    Path uploadDir;
+
+    @Test
+    void platformVersusVirtualThreads() throws Exception {
+        StringBuilder report = new StringBuilder();
+        for (boolean virtual : new boolean[]{false, true}) {
+            try (ConfigurableApplicationContext context = start(virtual)) {
+                String baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+                if (!virtual) {
+                    // JIT state carries over to the second instance, so the first one gets an unmeasured pass.
+                    new LoadGenerator(baseUrl, settings()).run();
+                }
+                LoadGenerator generator = new LoadGenerator(baseUrl, settings());
+                Map<LoadGenerator.Operation, LoadGenerator.Stats> stats = generator.run();
+
+                report.append(virtual ? "virtual threads" : "platform threads").append('\n')
+                        .append(generator.report()).append('\n');
+                LoadGenerator.Stats downloads = stats.get(LoadGenerator.Operation.DOWNLOAD);
+                assertTrue(downloads.getCount() > 0, "no downloads completed");
+                assertTrue(downloads.getErrors() <= downloads.getCount() / 100, "download error rate above 1%");
+            }
+        }
+
+        System.out.println(report);
+        Files.createDirectories(Paths.get("target"));
+        Files.writeString(Paths.get("target", "virtual-thread-report.txt"), report);
+    }
+
+    private ConfigurableApplicationContext start(boolean virtual) {
+        String mode = virtual ? "virtual" : "platform";
+        return new SpringApplicationBuilder(FileManagerApplication.class).run(
+                "--server.port=0",
+                "--spring.threads.virtual.enabled=" + virtual,
+                "--server.tomcat.threads.max=" + Integer.getInteger("load.platform-threads", 200),
+                "--spring.datasource.url=jdbc:h2:mem:vt-" + mode + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+                "--spring.datasource.username=sa",
+                "--spring.datasource.password=",
+                "--spring.jpa.hibernate.ddl-auto=create-drop",
+                "--jwt.secret=load-test-secret-load-test-secret-load-test-secret-load-test-secret-0123",
+                "--jwt.expiration=3600000",
+                "--ratelimit.enabled=false",
+                "--auth.bcrypt.strength=4",
+                "--file.upload.dir=" + uploadDir.resolve(mode));
+    }
+
+    private static LoadGenerator.Settings settings() {
+        LoadGenerator.Settings settings = LoadGenerator.Settings.fromSystemProperties();
+        if (System.getProperty("load.mix") == null) {
+            settings.mix.clear();
+            settings.mix.put(LoadGenerator.Operation.DOWNLOAD, 1);
+        }
+        if (System.getProperty("load.file-size") == null) {
+            settings.fileSize = 1024 * 1024;
+        }
+        return settings;
+    }
+}
@@ -0,0 +1,166 @@
+package org.elsveys.scale;
+
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Random;
+
+/**
+ * Bulk-loads synthetic {@code file_metadata} rows with realistic shapes.
+ *
+ * Uploaders are skewed so a few heavy users own most of the files, types follow a fixed weighted mix,
+ * sizes are log-normal around a few hundred KB, and modification times spread over two years. With a
+ * storage directory set, every row also gets a sparse file of its nominal size, which takes almost no
+ * real disk space.
+ *
+ * Standalone use against a real database:
+ * {@code CorpusGenerator <jdbcUrl> <user> <password> <rows> [users=1000] [sparseDir]}
+ */
+public class CorpusGenerator {
+
+    private static final String[] TYPES = {"kt", "txt", "jpg", "png", "pdf", "zip", "json", "md", "csv", "mp4"};
+    private static final int[] TYPE_WEIGHTS = {25, 15, 15, 10, 8, 6, 8, 5, 5, 3};
+    private static final String[] WORDS = {
+            "report", "draft", "final", "invoice", "photo", "backup", "notes", "budget", "scan", "export",
+            "summary", "design", "meeting", "data", "archive", "contract", "plan", "review", "log", "build"
+    };
+    private static final int BATCH_SIZE = 5_000;
+    private static final long MEDIAN_SIZE = 200 * 1024;
+    private static final long MAX_SIZE = 4L * 1024 * 1024 * 1024;
+
+    private static final String INSERT = "insert into file_metadata "
+            + "(name, type, size, file_path, created_date, modified_date, uploader_id, uploader_name, editor_id, editor_name) "
+            + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbc;
+    private final int users;
+    private final Path storageDir;
+    private final Random random = new Random(42);
+    private final LocalDateTime now = LocalDateTime.now();
+    private long sequence;
+
+    public CorpusGenerator(JdbcTemplate jdbc, int users, Path storageDir) {
+        this.jdbc = jdbc;
+        this.users = users;
+        this.storageDir = storageDir;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: CorpusGenerator <jdbcUrl> <user> <password> <rows> [users] [sparseDir]");
+            System.exit(1);
+        }
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(args[0], args[1], args[2]));
+        int users = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        Path sparseDir = args.length > 5 ? Paths.get(args[5]) : null;
+
+        long start = System.nanoTime();
+        int rows = Integer.parseInt(args[3]);
+        new CorpusGenerator(jdbc, users, sparseDir).generate(rows);
+        System.out.printf("Inserted %d rows in %.1f s%n", rows, (System.nanoTime() - start) / 1e9);
+    }
+
+    public void generate(int rows) throws IOException {
+        if (storageDir != null) {
+            Files.createDirectories(storageDir);
+        }
+        for (int done = 0; done < rows; done += BATCH_SIZE) {
+            Row[] batch = new Row[Math.min(BATCH_SIZE, rows - done)];
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = nextRow();
+                if (storageDir != null) {
+                    try (RandomAccessFile file = new RandomAccessFile(batch[i].path, "rw")) {
+                        file.setLength(batch[i].size);
+                    }
+                }
+            }
+            insert(batch);
+        }
+    }
+
+    /**
+     * Inserts {@code count} rows for one uploader, for probes whose cost should not depend on corpus size.
+     */
+    public void generateForUser(long uploaderId, String prefix, int count) {
+        Row[] batch = new Row[count];
+        for (int i = 0; i < count; i++) {
+            batch[i] = row(uploaderId, prefix + "-" + i + ".kt", "kt");
+        }
+        insert(batch);
+    }
+
+    private Row nextRow() {
+        // Cubing a uniform draw skews ownership towards low ids: about 20% of users own half the files.
+        long uploaderId = 1 + (long) (users * Math.pow(random.nextDouble(), 3));
+        String type = pickType();
+        String name = WORDS[random.nextInt(WORDS.length)] + "-" + WORDS[random.nextInt(WORDS.length)]
+                + "-" + (sequence++) + "." + type;
+        return row(uploaderId, name, type);
+    }
+
+    private Row row(long uploaderId, String name, String type) {
+        Row row = new Row();
+        row.name = name;
+        row.type = type;
+        row.size = Math.min(MAX_SIZE, (long) (MEDIAN_SIZE * Math.exp(random.nextGaussian() * 2)));
+        row.uploaderId = uploaderId;
+        row.path = (storageDir != null ? storageDir : Paths.get("uploads")).resolve(uploaderId + "_" + name).toString();
+        row.modified = now.minusMinutes(random.nextInt(2 * 365 * 24 * 60));
+        return row;
+    }
+
+    private String pickType() {
+        int roll = random.nextInt(100);
+        for (int i = 0; i < TYPES.length; i++) {
+            roll -= TYPE_WEIGHTS[i];
+            if (roll < 0) {
+                return TYPES[i];
+            }
+        }
+        return TYPES[0];
+    }
+
+    private void insert(Row[] batch) {
+        jdbc.batchUpdate(INSERT, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                Row row = batch[i];
+                Timestamp modified = Timestamp.valueOf(row.modified);
+                ps.setString(1, row.name);
+                ps.setString(2, row.type);
+                ps.setLong(3, row.size);
+                ps.setString(4, row.path);
+                ps.setTimestamp(5, modified);
+                ps.setTimestamp(6, modified);
+                ps.setLong(7, row.uploaderId);
+                ps.setString(8, "user" + row.uploaderId);
+                ps.setLong(9, row.uploaderId);
+                ps.setString(10, "user" + row.uploaderId);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return batch.length;
+            }
+        });
+    }
+
+    private static class Row {
+        String name;
+        String type;
+        long size;
+        long uploaderId;
+        String path;
+        LocalDateTime modified;
+    }
+}
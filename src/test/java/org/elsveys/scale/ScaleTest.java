@@ -0,0 +1,212 @@
+package org.elsveys.scale;
+
+import org.elsveys.contoller.SyncController;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.service.FileService;
+import org.elsveys.service.SortFilterService;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Measures how the cost of each data-bound operation grows with the number of stored files.
+ *
+ * The corpus is grown through a series of sizes and every operation is timed at each size. The
+ * growth exponent is the slope of log(time) over log(rows): about 1 for work that has to touch every
+ * row, about 0 for work that should be an index lookup. Operations whose exponent exceeds their
+ * budget fail the test, which is how a missing index or an accidental full scan shows up.
+ *
+ * Excluded from the default build; run with {@code mvn -Pscale-test test}, optionally with
+ * {@code -Dscale.sizes=250000,1000000,4000000} and {@code -Dscale.jdbc-url/-user/-password} to use a
+ * real database instead of in-memory H2. The report is written to {@code target/scale-report.txt}.
+ */
+@Tag("scale")
+@SpringBootTest(properties = {
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "jwt.secret=scale-test-secret-scale-test-secret-scale-test-secret-scale-test-secret-01",
+        "jwt.expiration=3600000",
+        "files.processing.poll-interval-ms=3600000",
+        "files.quota.flush-interval-ms=3600000",
+        // Measures how the queries themselves grow; the corpus is also written with JDBC, behind the caches' back.
+        "spring.jpa.properties.hibernate.cache.use_second_level_cache=false",
+        "spring.jpa.properties.hibernate.cache.use_query_cache=false"
+})
+class ScaleTest {
+
+    private static final long PROBE_USER = 1_000_000L;
+    private static final int PROBE_FILES = 20;
+    private static final int USERS = 1000;
+    private static final int LOCAL_NAMES = 1000;
+    private static final double LINEAR_BUDGET = 1.25;
+    private static final double LOOKUP_BUDGET = 0.35;
+
+    @TempDir
+    static Path uploadDir;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private SortFilterService sortFilterService;
+
+    @Autowired
+    private SyncController syncController;
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    private final Deque<Long> deletable = new ArrayDeque<>();
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getProperty("scale.jdbc-url",
+                "jdbc:h2:mem:scale;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1"));
+        if (System.getProperty("scale.jdbc-user") != null) {
+            registry.add("spring.datasource.username", () -> System.getProperty("scale.jdbc-user"));
+            registry.add("spring.datasource.password", () -> System.getProperty("scale.jdbc-password", ""));
+        }
+        registry.add("file.upload.dir", () -> uploadDir.toString());
+    }
+
+    private record Probe(String name, double budget, Callable<?> operation) {}
+
+    @Test
+    void costGrowsNoFasterThanIntended() throws Exception {
+        int[] sizes = Arrays.stream(System.getProperty("scale.sizes", "10000,40000,160000").split(","))
+                .mapToInt(size -> Integer.parseInt(size.trim()))
+                .toArray();
+
+        CorpusGenerator generator = new CorpusGenerator(jdbc, USERS, null);
+        generator.generateForUser(PROBE_USER, "probe", PROBE_FILES);
+        Long probeFileId = jdbc.queryForObject(
+                "select min(file_id) from file_metadata where uploader_id = ?", Long.class, PROBE_USER);
+
+        List<String> localNames = new ArrayList<>();
+        for (int i = 0; i < LOCAL_NAMES; i++) {
+            localNames.add("local-" + i + ".kt");
+        }
+        Map<String, Object> comparePayload = Map.of("localFiles", localNames);
+
+        List<Probe> probes = List.of(
+                new Probe("list", LINEAR_BUDGET, () -> fileService.listAllFiles().size()),
+                new Probe("sort", LINEAR_BUDGET, () -> sortFilterService.sortByModifiedDate(false).size()),
+                new Probe("filter", LINEAR_BUDGET, () -> sortFilterService.sortAndFilter(false, List.of("pdf")).size()),
+                new Probe("sync-compare", LINEAR_BUDGET, () -> syncController.compareFiles(comparePayload, "Bearer scale")),
+                new Probe("user-files", LOOKUP_BUDGET, () -> sortFilterService.getAllFilesForUser(PROBE_USER).size()),
+                new Probe("name-exists", LOOKUP_BUDGET, () -> fileRepository.existsByUploaderIdAndName(PROBE_USER, "probe-7.kt")),
+                new Probe("get-by-id", LOOKUP_BUDGET, () -> fileService.getFileMetadata(probeFileId)),
+                new Probe("delete", LOOKUP_BUDGET, () -> {
+                    fileService.deleteFile(deletable.pop());
+                    return null;
+                })
+        );
+
+        Map<String, double[]> timings = new LinkedHashMap<>();
+        probes.forEach(probe -> timings.put(probe.name(), new double[sizes.length]));
+
+        int rows = 0;
+        for (int s = 0; s < sizes.length; s++) {
+            generator.generate(sizes[s] - rows);
+            rows = sizes[s];
+            refillDeletable();
+            for (Probe probe : probes) {
+                timings.get(probe.name())[s] = medianNanos(probe.operation(), probe.name().equals("delete"));
+            }
+        }
+
+        StringBuilder report = new StringBuilder(String.format("%-14s", "operation"));
+        for (int size : sizes) {
+            report.append(String.format("%14s", size + " rows"));
+        }
+        report.append(String.format("%10s %8s  %s%n", "exponent", "budget", "verdict"));
+
+        List<String> failures = new ArrayList<>();
+        for (Probe probe : probes) {
+            double[] nanos = timings.get(probe.name());
+            double exponent = growthExponent(sizes, nanos);
+            boolean tooSteep = exponent > probe.budget();
+            if (tooSteep) {
+                failures.add(String.format("%s grows with exponent %.2f (budget %.2f)", probe.name(), exponent, probe.budget()));
+            }
+            report.append(String.format("%-14s", probe.name()));
+            for (double value : nanos) {
+                report.append(String.format("%11.3f ms", value / 1e6));
+            }
+            report.append(String.format("%10.2f %8.2f  %s%n", exponent, probe.budget(), tooSteep ? "TOO STEEP" : "ok"));
+        }
+
+        System.out.println(report);
+        Files.createDirectories(Paths.get("target"));
+        Files.writeString(Paths.get("target", "scale-report.txt"), report.toString());
+        assertTrue(failures.isEmpty(), String.join("; ", failures));
+    }
+
+    private void refillDeletable() {
+        deletable.clear();
+        deletable.addAll(jdbc.queryForList(
+                "select file_id from file_metadata where uploader_id <> ? order by file_id desc limit 200",
+                Long.class, PROBE_USER));
+    }
+
+    /**
+     * Median time of one call, after a warmup, over at least 5 calls and 200 ms (at most 200 calls).
+     */
+    private double medianNanos(Callable<?> operation, boolean consumesRows) throws Exception {
+        int warmup = consumesRows ? 5 : 3;
+        for (int i = 0; i < warmup; i++) {
+            operation.call();
+        }
+        List<Long> samples = new ArrayList<>();
+        long started = System.nanoTime();
+        int maxCalls = consumesRows ? Math.min(100, deletable.size()) : 200;
+        while (samples.size() < maxCalls && (samples.size() < 5 || System.nanoTime() - started < 200_000_000L)) {
+            long start = System.nanoTime();
+            operation.call();
+            samples.add(System.nanoTime() - start);
+        }
+        samples.sort(null);
+        return samples.get(samples.size() / 2);
+    }
+
+    /**
+     * Least-squares slope of log(time) against log(rows).
+     */
+    static double growthExponent(int[] sizes, double[] nanos) {
+        int n = sizes.length;
+        double sumX = 0, sumY = 0, sumXY = 0, sumXX = 0;
+        for (int i = 0; i < n; i++) {
+            double x = Math.log(sizes[i]);
+            double y = Math.log(nanos[i]);
+            sumX += x;
+            sumY += y;
+            sumXY += x * y;
+            sumXX += x * x;
+        }
+        return (n * sumXY - sumX * sumY) / (n * sumXX - sumX * sumX);
+    }
+}
@@ -0,0 +1,52 @@
+package org.elsveys.security;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.util.UriComponents;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DownloadUrlSignerTest {
+
+    private DownloadUrlSigner signer;
+
+    @BeforeEach
+    void setUp() {
+        signer = new DownloadUrlSigner();
+        ReflectionTestUtils.setField(signer, "signingSecret", "download-secret");
+        ReflectionTestUtils.setField(signer, "ttlSeconds", 300L);
+        ReflectionTestUtils.setField(signer, "granularitySeconds", 60L);
+        signer.init();
+    }
+
+    @Test
+    void testSignedUrlVerifies() {
+        String url = signer.createUrl(12L, 3L, 1_000L);
+        UriComponents uri = UriComponentsBuilder.fromUriString(url).build();
+
+        assertEquals(DownloadUrlSigner.DOWNLOAD_PATH, uri.getPath());
+        assertEquals("12", uri.getQueryParams().getFirst("f"));
+        assertEquals("3", uri.getQueryParams().getFirst("v"));
+        assertTrue(signer.verify(12L, 3L, 1_000L, uri.getQueryParams().getFirst("sig"), 999L));
+    }
+
+    @Test
+    void testTamperedOrExpiredUrlIsRejected() {
+        String url = signer.createUrl(12L, 3L, 1_000L);
+        String signature = UriComponentsBuilder.fromUriString(url).build().getQueryParams().getFirst("sig");
+
+        assertFalse(signer.verify(12L, 4L, 1_000L, signature, 999L));
+        assertFalse(signer.verify(13L, 3L, 1_000L, signature, 999L));
+        assertFalse(signer.verify(12L, 3L, 2_000L, signature, 999L));
+        assertFalse(signer.verify(12L, 3L, 1_000L, signature, 1_000L));
+    }
+
+    @Test
+    void testExpiryIsRoundedForCacheableUrls() {
+        assertEquals(360L, signer.nextExpiry(1L));
+        assertEquals(360L, signer.nextExpiry(59L));
+        assertEquals(signer.nextExpiry(10L), signer.nextExpiry(30L));
+    }
+}
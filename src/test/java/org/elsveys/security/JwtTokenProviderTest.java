@@ -0,0 +1,173 @@
+package org.elsveys.security;
+
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JwtTokenProviderTest {
+
+    private static final String SECRET = "test-secret-key-that-is-long-enough-for-hs512-signatures-0123456789abcdef";
+
+    private JwtTokenProvider tokenProvider;
+
+    @BeforeEach
+    void setUp() {
+        tokenProvider = new JwtTokenProvider();
+        ReflectionTestUtils.setField(tokenProvider, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(tokenProvider, "jwtExpiration", 60_000L);
+        ReflectionTestUtils.setField(tokenProvider, "cacheMaxEntries", 100);
+        ReflectionTestUtils.setField(tokenProvider, "revokedMaxEntries", 100);
+        tokenProvider.init();
+    }
+
+    @Test
+    void testParseToken() {
+        String token = tokenProvider.generateToken(7L, "alice");
+
+        UserPrincipal principal = tokenProvider.parseToken(token);
+
+        assertEquals(7L, principal.getUserId());
+        assertEquals("alice", principal.getUsername());
+        assertTrue(tokenProvider.validateToken(token));
+    }
+
+    @Test
+    void testResolvePrincipalRejectsTamperedToken() {
+        String token = tokenProvider.generateToken(7L, "alice");
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+
+        assertNull(tokenProvider.resolvePrincipal(tampered));
+        assertNull(tokenProvider.resolvePrincipal("not-a-token"));
+        assertFalse(tokenProvider.validateToken(tampered));
+    }
+
+    @Test
+    void testResolvePrincipalRejectsExpiredToken() {
+        ReflectionTestUtils.setField(tokenProvider, "jwtExpiration", -1_000L);
+        String token = tokenProvider.generateToken(7L, "alice");
+
+        assertNull(tokenProvider.resolvePrincipal(token));
+    }
+
+    @Test
+    void testParseTokenUsesVerifiedCache() {
+        String token = tokenProvider.generateToken(7L, "alice");
+
+        UserPrincipal first = tokenProvider.parseToken(token);
+        UserPrincipal second = tokenProvider.parseToken(token);
+
+        assertSame(first, second);
+
+        tokenProvider.invalidateCache();
+        assertNotSame(first, tokenProvider.parseToken(token));
+    }
+
+    @Test
+    void testRevokedTokenIsRejected() {
+        String token = tokenProvider.generateToken(7L, "alice");
+        String other = tokenProvider.generateToken(8L, "bob");
+        assertNotNull(tokenProvider.resolvePrincipal(token));
+
+        tokenProvider.revokeToken(token);
+
+        assertNull(tokenProvider.resolvePrincipal(token));
+        assertFalse(tokenProvider.validateToken(token));
+        assertNotNull(tokenProvider.resolvePrincipal(other));
+    }
+
+    @Test
+    void testRevocationSurvivesLaterRevocations() {
+        String token = tokenProvider.generateToken(7L, "alice");
+        tokenProvider.revokeToken(token);
+
+        for (int i = 0; i < 500; i++) {
+            tokenProvider.revokeToken(tokenProvider.generateToken(100L + i, "user" + i));
+        }
+
+        assertNull(tokenProvider.resolvePrincipal(token));
+    }
+
+    @Test
+    void testFullRevocationStoreRejectsOlderTokensOfThatUserOnly() {
+        String older = tokenIssuedAt(9L, System.currentTimeMillis() - 5_000);
+        String other = tokenProvider.generateToken(7L, "alice");
+        assertNotNull(tokenProvider.resolvePrincipal(older));
+        assertNotNull(tokenProvider.resolvePrincipal(other));
+        for (int i = 0; i < 100; i++) {
+            tokenProvider.revokeToken(tokenProvider.generateToken(100L + i, "user" + i));
+        }
+
+        long issuedAt = System.currentTimeMillis();
+        String unrecorded = tokenIssuedAt(9L, issuedAt);
+        tokenProvider.revokeToken(unrecorded);
+
+        assertNull(tokenProvider.resolvePrincipal(unrecorded));
+        assertNull(tokenProvider.resolvePrincipal(older));
+        assertNotNull(tokenProvider.resolvePrincipal(other));
+        assertNotNull(tokenProvider.resolvePrincipal(tokenIssuedAt(9L, issuedAt + 1_000)));
+    }
+
+    @Test
+    void testRevocationWinsOverConcurrentParses() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int round = 0; round < 50; round++) {
+                String token = tokenProvider.generateToken(7L, "alice");
+                tokenProvider.invalidateCache();
+                CountDownLatch start = new CountDownLatch(1);
+                AtomicBoolean revoked = new AtomicBoolean();
+                AtomicBoolean acceptedAfterRevoke = new AtomicBoolean();
+                List<Future<?>> parsers = new ArrayList<>();
+                for (int t = 0; t < 7; t++) {
+                    parsers.add(executor.submit(() -> {
+                        start.await();
+                        for (int i = 0; i < 200; i++) {
+                            boolean revokedBefore = revoked.get();
+                            if (tokenProvider.resolvePrincipal(token) != null && revokedBefore) {
+                                acceptedAfterRevoke.set(true);
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                start.countDown();
+                tokenProvider.revokeToken(token);
+                revoked.set(true);
+                for (Future<?> parser : parsers) {
+                    parser.get(10, TimeUnit.SECONDS);
+                }
+
+                assertFalse(acceptedAfterRevoke.get(), "revoked token verified in round " + round);
+                assertNull(tokenProvider.resolvePrincipal(token));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static String tokenIssuedAt(Long userId, long issuedAt) {
+        return Jwts.builder()
+                .setSubject(userId.toString())
+                .claim("username", "carol")
+                .setIssuedAt(new Date(issuedAt))
+                .setExpiration(new Date(issuedAt + 60_000))
+                .signWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8)), SignatureAlgorithm.HS512)
+                .compact();
+    }
+}
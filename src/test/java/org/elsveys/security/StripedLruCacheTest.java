@@ -0,0 +1,41 @@
+package org.elsveys.security;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedLruCacheTest {
+
+    @Test
+    void testEntriesExpire() {
+        StripedLruCache<String, String> cache = new StripedLruCache<>(10, 1);
+        cache.put("token", "alice", 1_000L);
+
+        assertEquals("alice", cache.get("token", 999L));
+        assertNull(cache.get("token", 1_000L));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testLeastRecentlyUsedEntryIsEvicted() {
+        StripedLruCache<String, String> cache = new StripedLruCache<>(2, 1);
+        cache.put("a", "1", Long.MAX_VALUE);
+        cache.put("b", "2", Long.MAX_VALUE);
+        cache.get("a", 0L);
+        cache.put("c", "3", Long.MAX_VALUE);
+
+        assertEquals("1", cache.get("a", 0L));
+        assertNull(cache.get("b", 0L));
+        assertEquals("3", cache.get("c", 0L));
+    }
+
+    @Test
+    void testSizeStaysBoundedAcrossStripes() {
+        StripedLruCache<Integer, Integer> cache = new StripedLruCache<>(64, 8);
+        for (int i = 0; i < 10_000; i++) {
+            cache.put(i, i, Long.MAX_VALUE);
+        }
+
+        assertTrue(cache.size() <= 64);
+    }
+}
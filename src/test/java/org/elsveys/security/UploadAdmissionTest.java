@@ -0,0 +1,96 @@
+package org.elsveys.security;
+
+import org.elsveys.config.UploadAdmissionProperties;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UploadAdmissionTest {
+
+    private static final long MB = 1024 * 1024;
+
+    private UploadAdmission admission;
+
+    @BeforeEach
+    void setUp() {
+        UploadAdmissionProperties properties = new UploadAdmissionProperties();
+        properties.setMaxBytes(100 * MB);
+        properties.setMaxUploads(4);
+        properties.setPerUserMaxBytes(60 * MB);
+        properties.setPerUserMaxUploads(2);
+        properties.setSmallFileBytes(MB);
+        properties.setSmallMaxUploads(2);
+        properties.setDrainBytesPerSecond(10 * MB);
+        properties.setMaxRetryAfterSeconds(30);
+        admission = new UploadAdmission(properties);
+    }
+
+    @Test
+    void testGlobalBytesCapWithRetryAfterFromExcess() {
+        assertTrue(admission.admit(1L, 50 * MB).isAdmitted());
+        assertTrue(admission.admit(2L, 40 * MB).isAdmitted());
+
+        UploadAdmission.Ticket rejected = admission.admit(3L, 35 * MB);
+        assertFalse(rejected.isAdmitted());
+        assertEquals("bytes", rejected.getRejectedBy());
+        assertEquals(3, rejected.getRetryAfterSeconds());
+        assertEquals(90 * MB, admission.getInFlightBytes());
+    }
+
+    @Test
+    void testPerUserCapsLeaveRoomForOthers() {
+        assertTrue(admission.admit(1L, 40 * MB).isAdmitted());
+        assertEquals("user-bytes", admission.admit(1L, 30 * MB).getRejectedBy());
+        assertTrue(admission.admit(1L, 10 * MB).isAdmitted());
+        assertEquals("user-uploads", admission.admit(1L, 2 * MB).getRejectedBy());
+
+        assertTrue(admission.admit(2L, 30 * MB).isAdmitted());
+    }
+
+    @Test
+    void testReleaseFreesCapacity() {
+        UploadAdmission.Ticket first = admission.admit(1L, 60 * MB);
+        assertTrue(first.isAdmitted());
+        assertFalse(admission.admit(1L, 10 * MB).isAdmitted());
+
+        admission.release(first);
+
+        assertTrue(admission.admit(1L, 10 * MB).isAdmitted());
+        assertEquals(10 * MB, admission.getInFlightBytes());
+    }
+
+    @Test
+    void testOversizedUploadIsAdmittedAlone() {
+        UploadAdmission.Ticket huge = admission.admit(1L, 500 * MB);
+        assertTrue(huge.isAdmitted());
+
+        UploadAdmission.Ticket next = admission.admit(2L, 5 * MB);
+        assertFalse(next.isAdmitted());
+        assertEquals(30, next.getRetryAfterSeconds());
+    }
+
+    @Test
+    void testSmallFilesUseFastLane() {
+        assertTrue(admission.admit(1L, 100 * MB).isAdmitted());
+        assertFalse(admission.admit(2L, 5 * MB).isAdmitted());
+
+        UploadAdmission.Ticket small = admission.admit(2L, 512 * 1024);
+        assertTrue(small.isAdmitted());
+        assertTrue(small.isSmall());
+        assertTrue(admission.admit(3L, 1024).isAdmitted());
+        assertEquals("small-uploads", admission.admit(3L, 1024).getRejectedBy());
+
+        admission.release(small);
+        assertTrue(admission.admit(3L, 1024).isAdmitted());
+    }
+
+    @Test
+    void testUnknownLengthIsChargedAsLarge() {
+        UploadAdmission.Ticket ticket = admission.admit(1L, -1);
+
+        assertTrue(ticket.isAdmitted());
+        assertFalse(ticket.isSmall());
+        assertEquals(64 * MB, admission.getInFlightBytes());
+    }
+}
@@ -1,5 +1,6 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.elsveys.model.User;
 import org.elsveys.repository.UserRepository;
 import org.elsveys.security.JwtTokenProvider;
@@ -8,8 +9,8 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
-import org.springframework.security.crypto.password.PasswordEncoder;
 
 import java.util.Optional;
 
@@ -25,11 +26,14 @@ class AuthServiceTest {
     private UserRepository userRepository;
 
     @Mock
-    private PasswordEncoder passwordEncoder;
+    private PasswordHashingService passwordHashingService;
 
     @Mock
     private JwtTokenProvider tokenProvider;
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private AuthService authService;
 
@@ -47,7 +51,7 @@ class AuthServiceTest {
     @Test
     void testRegisterSuccess() {
         when(userRepository.existsByUsername("newuser")).thenReturn(false);
-        when(passwordEncoder.encode("password123")).thenReturn("encodedPassword");
+        when(passwordHashingService.encode("password123")).thenReturn("encodedPassword");
         User savedUser = new User();
         savedUser.setUserId(1L);
         savedUser.setUsername("newuser");
@@ -78,7 +82,7 @@ class AuthServiceTest {
     @Test
     void testLoginSuccess() {
         when(userRepository.findByUsername("testuser")).thenReturn(Optional.of(testUser));
-        when(passwordEncoder.matches("password123", "encodedPassword")).thenReturn(true);
+        when(passwordHashingService.matches("password123", "encodedPassword")).thenReturn(true);
         when(tokenProvider.generateToken(1L, "testuser")).thenReturn("jwt-token");
 
         String token = authService.login("testuser", "password123");
@@ -88,6 +92,20 @@ class AuthServiceTest {
         verify(tokenProvider, times(1)).generateToken(1L, "testuser");
     }
 
+    @Test
+    void testLoginRehashesOutdatedPassword() {
+        when(userRepository.findByUsername("testuser")).thenReturn(Optional.of(testUser));
+        when(passwordHashingService.matches("password123", "encodedPassword")).thenReturn(true);
+        when(passwordHashingService.needsRehash("encodedPassword")).thenReturn(true);
+        when(passwordHashingService.encode("password123")).thenReturn("rehashedPassword");
+        when(tokenProvider.generateToken(1L, "testuser")).thenReturn("jwt-token");
+
+        authService.login("testuser", "password123");
+
+        assertEquals("rehashedPassword", testUser.getPassword());
+        verify(userRepository, times(1)).save(testUser);
+    }
+
     @Test
     void testLoginInvalidUsername() {
         when(userRepository.findByUsername("nonexistent")).thenReturn(Optional.empty());
@@ -102,7 +120,7 @@ class AuthServiceTest {
     @Test
     void testLoginInvalidPassword() {
         when(userRepository.findByUsername("testuser")).thenReturn(Optional.of(testUser));
-        when(passwordEncoder.matches("wrongpassword", "encodedPassword")).thenReturn(false);
+        when(passwordHashingService.matches("wrongpassword", "encodedPassword")).thenReturn(false);
 
         RuntimeException exception = assertThrows(RuntimeException.class, () -> {
             authService.login("testuser", "wrongpassword");
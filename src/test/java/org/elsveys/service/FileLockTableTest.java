@@ -0,0 +1,115 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileLockTableTest {
+
+    private FileLockTable lockTable;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        lockTable = new FileLockTable();
+        meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(lockTable, "meterRegistry", meterRegistry);
+    }
+
+    @Test
+    void testReadersShareLockAndOtherFilesDoNotWait() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> reader = executor.submit(() -> lockTable.withReadLock(1L, () -> {
+                reading.countDown();
+                await(release);
+                return null;
+            }));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            assertEquals("read", lockTable.withReadLock(1L, () -> "read"));
+            assertEquals("write", lockTable.withWriteLock(2L, () -> "write"));
+
+            release.countDown();
+            reader.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertTrue(lockTable.hotFiles(10).isEmpty());
+        assertEquals(0, lockTable.activeLocks());
+    }
+
+    @Test
+    void testWriterWaitsForReaderAndIsReportedAsHot() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            Future<?> reader = executor.submit(() -> lockTable.withReadLock(7L, () -> {
+                reading.countDown();
+                await(release);
+                return null;
+            }));
+            assertTrue(reading.await(5, TimeUnit.SECONDS));
+
+            Future<String> writer = executor.submit(() -> lockTable.withWriteLock(7L, () -> "written"));
+            Thread.sleep(50);
+            assertFalse(writer.isDone());
+
+            release.countDown();
+            assertEquals("written", writer.get(5, TimeUnit.SECONDS));
+            reader.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Map<String, Object>> hot = lockTable.hotFiles(10);
+        assertEquals(1, hot.size());
+        assertEquals(7L, hot.get(0).get("fileId"));
+        assertEquals(1L, hot.get(0).get("writeWaits"));
+        assertEquals(1, meterRegistry.get("files.lock.wait").tag("mode", "write").timer().count());
+        assertEquals(0, lockTable.activeLocks());
+    }
+
+    @Test
+    void testReadLeaseReleasedFromAnotherThreadLetsWriterIn() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            FileLockTable.Lease lease = lockTable.readLease(3L);
+
+            Future<String> writer = executor.submit(() -> lockTable.withWriteLock(3L, () -> "written"));
+            Thread.sleep(50);
+            assertFalse(writer.isDone());
+
+            executor.submit(lease::close).get(5, TimeUnit.SECONDS);
+            lease.close();
+            assertEquals("written", writer.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, lockTable.activeLocks());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
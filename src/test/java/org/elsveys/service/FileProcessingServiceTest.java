@@ -0,0 +1,201 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.model.FileProcessingTask;
+import org.elsveys.model.FileProcessingTask.Stage;
+import org.elsveys.model.FileProcessingTask.Status;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.repository.FileProcessingTaskRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class FileProcessingServiceTest {
+
+    @Mock
+    private FileProcessingTaskRepository taskRepository;
+
+    @Mock
+    private FileMetadataRepository fileRepository;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private ExecutorService hashExecutor;
+
+    @Mock
+    private ExecutorService mimeExecutor;
+
+    @Mock
+    private LineIndexService lineIndexService;
+
+    @TempDir
+    Path tempDir;
+
+    private FileProcessingService service;
+
+    @BeforeEach
+    void setUp() {
+        service = new FileProcessingService();
+        ReflectionTestUtils.setField(service, "taskRepository", taskRepository);
+        ReflectionTestUtils.setField(service, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(service, "fileLockTable", new FileLockTable());
+        ReflectionTestUtils.setField(service, "eventPublisher", eventPublisher);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "hashExecutor", hashExecutor);
+        ReflectionTestUtils.setField(service, "mimeExecutor", mimeExecutor);
+        ReflectionTestUtils.setField(service, "lineIndexService", lineIndexService);
+        ReflectionTestUtils.setField(service, "maxAttempts", 3);
+        ReflectionTestUtils.setField(service, "retryBaseMillis", 1000L);
+        ReflectionTestUtils.setField(service, "leaseSeconds", 300L);
+    }
+
+    @Test
+    void testEnqueueStoresTaskAndPublishesEvent() {
+        when(taskRepository.save(any(FileProcessingTask.class))).thenAnswer(inv -> {
+            FileProcessingTask task = inv.getArgument(0);
+            task.setTaskId(10L);
+            return task;
+        });
+
+        FileMetadata file = new FileMetadata();
+        file.setFileId(5L);
+        file.setContentVersion(2L);
+        service.enqueue(file);
+
+        ArgumentCaptor<FileStoredEvent> event = ArgumentCaptor.forClass(FileStoredEvent.class);
+        verify(eventPublisher).publishEvent(event.capture());
+        assertEquals(5L, event.getValue().getFileId());
+        assertEquals(10L, event.getValue().getTaskId());
+        assertEquals(Stage.HASH, event.getValue().getStage());
+        ArgumentCaptor<FileProcessingTask> task = ArgumentCaptor.forClass(FileProcessingTask.class);
+        verify(taskRepository).save(task.capture());
+        assertEquals(2L, task.getValue().getContentVersion());
+    }
+
+    @Test
+    void testHashStageStoresHashAndMovesToMimeStage() throws Exception {
+        Path file = Files.write(tempDir.resolve("a.txt"), "abc".getBytes(StandardCharsets.UTF_8));
+        FileProcessingTask task = task(1L, Stage.HASH);
+        when(taskRepository.claim(eq(1L), eq(Status.PENDING), any(), any())).thenReturn(1);
+        when(taskRepository.findById(1L)).thenReturn(Optional.of(task));
+        when(fileRepository.findById(7L)).thenReturn(Optional.of(metadata(file)));
+
+        service.process(1L);
+
+        verify(fileRepository).updateContentHash(7L, 0L,
+                "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        assertEquals(Stage.MIME, task.getStage());
+        verify(taskRepository).save(task);
+        verify(mimeExecutor).execute(any(Runnable.class));
+    }
+
+    @Test
+    void testMimeStageOfTextFileMovesToLineIndexStage() throws Exception {
+        Path file = Files.write(tempDir.resolve("notes.txt"), "one\ntwo\n".getBytes(StandardCharsets.UTF_8));
+        FileProcessingTask task = task(1L, Stage.MIME);
+        when(taskRepository.claim(eq(1L), eq(Status.PENDING), any(), any())).thenReturn(1);
+        when(taskRepository.findById(1L)).thenReturn(Optional.of(task));
+        when(fileRepository.findById(7L)).thenReturn(Optional.of(metadata(file)));
+
+        service.process(1L);
+
+        verify(fileRepository).updateMimeType(7L, 0L, "text/plain");
+        assertEquals(Stage.LINE_INDEX, task.getStage());
+        verify(hashExecutor).execute(any(Runnable.class));
+        verify(taskRepository, never()).delete(task);
+    }
+
+    @Test
+    void testAlreadyClaimedTaskIsSkipped() {
+        when(taskRepository.claim(eq(1L), eq(Status.PENDING), any(), any())).thenReturn(0);
+
+        service.process(1L);
+
+        verify(taskRepository, never()).findById(any());
+    }
+
+    @Test
+    void testFailureIsRetriedThenMarkedFailed() {
+        FileProcessingTask task = task(1L, Stage.HASH);
+        when(taskRepository.claim(eq(1L), eq(Status.PENDING), any(), any())).thenReturn(1);
+        when(taskRepository.findById(1L)).thenReturn(Optional.of(task));
+        when(fileRepository.findById(7L)).thenReturn(Optional.of(metadata(tempDir.resolve("missing.txt"))));
+
+        service.process(1L);
+        assertEquals(Status.PENDING, task.getStatus());
+        assertEquals(1, task.getAttempts());
+        assertTrue(task.getNextAttemptAt().isAfter(LocalDateTime.now()));
+
+        service.process(1L);
+        service.process(1L);
+        assertEquals(Status.FAILED, task.getStatus());
+        assertNotNull(task.getLastError());
+        verify(fileRepository, never()).updateContentHash(any(), any(), anyString());
+    }
+
+    @Test
+    void testTaskForReplacedContentIsSkipped() throws Exception {
+        // Same name, so the same path: only the content version tells the old content from the new.
+        Path file = Files.write(tempDir.resolve("a.txt"), "new".getBytes(StandardCharsets.UTF_8));
+        FileProcessingTask task = task(1L, Stage.HASH);
+        FileMetadata replaced = metadata(file);
+        replaced.contentReplaced();
+        when(taskRepository.claim(eq(1L), eq(Status.PENDING), any(), any())).thenReturn(1);
+        when(taskRepository.findById(1L)).thenReturn(Optional.of(task));
+        when(fileRepository.findById(7L)).thenReturn(Optional.of(replaced));
+
+        service.process(1L);
+
+        verify(fileRepository, never()).updateContentHash(any(), any(), anyString());
+        verify(fileRepository, never()).updateMimeType(any(), any(), anyString());
+        verify(taskRepository).delete(task);
+        verifyNoInteractions(mimeExecutor);
+    }
+
+    @Test
+    void testSniffMimeType() {
+        assertEquals("image/png", FileProcessingService.sniffMimeType(
+                new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A}, "picture"));
+        assertEquals("application/pdf", FileProcessingService.sniffMimeType("%PDF-1.7".getBytes(), "doc.bin"));
+        assertEquals("text/plain", FileProcessingService.sniffMimeType("hello".getBytes(), "notes"));
+        assertEquals("application/octet-stream", FileProcessingService.sniffMimeType(new byte[]{1, 0, 2}, "blob"));
+    }
+
+    private FileProcessingTask task(Long taskId, Stage stage) {
+        FileProcessingTask task = new FileProcessingTask(7L, 0L, stage, LocalDateTime.now());
+        task.setTaskId(taskId);
+        return task;
+    }
+
+    private FileMetadata metadata(Path path) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(7L);
+        metadata.setName(path.getFileName().toString());
+        metadata.setFilePath(path.toString());
+        metadata.setContentVersion(0L);
+        return metadata;
+    }
+}
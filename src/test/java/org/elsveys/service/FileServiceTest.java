@@ -1,6 +1,8 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.elsveys.model.FileMetadata;
+import org.elsveys.model.FileProcessingTask.Stage;
 import org.elsveys.repository.FileMetadataRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -8,18 +10,31 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -32,6 +47,24 @@ class FileServiceTest {
     @Mock
     private MultipartFile mockFile;
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private FileLockTable fileLockTable = new FileLockTable();
+
+    @Mock
+    private FileProcessingService fileProcessingService;
+
+    @Spy
+    private TransactionTemplate transactionTemplate = new TransactionTemplate(mock(PlatformTransactionManager.class));
+
+    @Mock
+    private QuotaService quotaService;
+
+    @Mock
+    private LineIndexService lineIndexService;
+
     @InjectMocks
     private FileService fileService;
 
@@ -48,7 +81,6 @@ class FileServiceTest {
         when(mockFile.getOriginalFilename()).thenReturn("test.kt");
         when(mockFile.getBytes()).thenReturn("test content".getBytes());
         when(mockFile.getSize()).thenReturn(12L);
-        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
 
         FileMetadata savedMetadata = new FileMetadata();
         savedMetadata.setFileId(1L);
@@ -63,6 +95,12 @@ class FileServiceTest {
         assertEquals("test.kt", result.getName());
         assertEquals("kt", result.getType());
         verify(fileRepository, times(1)).save(any(FileMetadata.class));
+        verify(fileProcessingService).enqueue(savedMetadata, Stage.HASH);
+        verify(quotaService).reserve(1L, 12L);
+        assertEquals(1, meterRegistry.get("files.operation")
+                .tag("operation", "upload").tag("outcome", "success").timer().count());
+        assertEquals(12.0, meterRegistry.get("files.transfer.bytes")
+                .tag("operation", "upload").summary().totalAmount());
     }
 
     @Test
@@ -70,7 +108,6 @@ class FileServiceTest {
         when(mockFile.getOriginalFilename()).thenReturn("test.txt");
         when(mockFile.getBytes()).thenReturn("test content".getBytes());
         when(mockFile.getSize()).thenReturn(12L);
-        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
 
         FileMetadata savedMetadata = new FileMetadata();
         savedMetadata.setFileId(1L);
@@ -91,9 +128,7 @@ class FileServiceTest {
     void testUploadFileDuplicate() {
         when(mockFile.getOriginalFilename()).thenReturn("duplicate.kt");
 
-        FileMetadata existing = new FileMetadata();
-        existing.setName("duplicate.kt");
-        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of(existing));
+        when(fileRepository.existsByUploaderIdAndName(1L, "duplicate.kt")).thenReturn(true);
 
         RuntimeException exception = assertThrows(RuntimeException.class, () -> {
             fileService.uploadFile(mockFile, 1L, "testUser");
@@ -103,12 +138,94 @@ class FileServiceTest {
         verify(fileRepository, never()).save(any(FileMetadata.class));
     }
 
+    @Test
+    void testUploadOverQuotaWritesNothing() {
+        when(mockFile.getOriginalFilename()).thenReturn("big.bin");
+        when(mockFile.getSize()).thenReturn(5000L);
+        doThrow(new RuntimeException("Storage quota exceeded")).when(quotaService).reserve(1L, 5000L);
+
+        RuntimeException exception = assertThrows(RuntimeException.class,
+                () -> fileService.uploadFile(mockFile, 1L, "testUser"));
+
+        assertEquals("Storage quota exceeded", exception.getMessage());
+        assertFalse(Files.exists(tempDir.resolve("1_big.bin")));
+        verify(fileRepository, never()).save(any(FileMetadata.class));
+    }
+
+    @Test
+    void testUploadFailureReleasesQuota() throws IOException {
+        when(mockFile.getOriginalFilename()).thenReturn("test.kt");
+        when(mockFile.getBytes()).thenReturn("test content".getBytes());
+        when(mockFile.getSize()).thenReturn(12L);
+        when(fileRepository.save(any(FileMetadata.class))).thenThrow(new RuntimeException("Database down"));
+
+        assertThrows(RuntimeException.class, () -> fileService.uploadFile(mockFile, 1L, "testUser"));
+
+        verify(quotaService).reserve(1L, 12L);
+        verify(quotaService).release(1L, 12L);
+    }
+
+    @Test
+    void testUploadStreamWritesAndHashesInOnePass() throws IOException {
+        when(fileRepository.save(any(FileMetadata.class))).thenAnswer(inv -> {
+            FileMetadata metadata = inv.getArgument(0);
+            metadata.setFileId(3L);
+            return metadata;
+        });
+
+        FileMetadata result = fileService.uploadStream(
+                new ByteArrayInputStream("abc".getBytes()), "raw.txt", 3, 1L, "testUser");
+
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad", result.getContentHash());
+        assertEquals(3L, result.getSize());
+        assertEquals("abc", Files.readString(tempDir.resolve("1_raw.txt")));
+        verify(fileProcessingService).enqueue(result, Stage.MIME);
+        verify(quotaService).reserve(1L, 3L);
+        try (var files = Files.list(tempDir)) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void testUploadStreamStoresFilesLikeMultipartUpload() throws IOException {
+        assumeTrue(tempDir.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        when(fileRepository.save(any(FileMetadata.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(mockFile.getOriginalFilename()).thenReturn("multipart.txt");
+        when(mockFile.getBytes()).thenReturn("abc".getBytes());
+        when(mockFile.getSize()).thenReturn(3L);
+
+        fileService.uploadFile(mockFile, 1L, "testUser");
+        fileService.uploadStream(new ByteArrayInputStream("abc".getBytes()), "raw.txt", 3, 1L, "testUser");
+
+        assertEquals(Files.getPosixFilePermissions(tempDir.resolve("1_multipart.txt")),
+                Files.getPosixFilePermissions(tempDir.resolve("1_raw.txt")));
+    }
+
+    @Test
+    void testUploadStreamRejectsTruncatedBody() {
+
+        IOException exception = assertThrows(IOException.class, () -> fileService.uploadStream(
+                new ByteArrayInputStream("ab".getBytes()), "raw.txt", 3, 1L, "testUser"));
+
+        assertTrue(exception.getMessage().startsWith("Incomplete upload"));
+        verify(quotaService).release(1L, 3L);
+        verify(fileRepository, never()).save(any(FileMetadata.class));
+        assertFalse(Files.exists(tempDir.resolve("1_raw.txt")));
+    }
+
+    @Test
+    void testUploadStreamRejectsPathInName() {
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> fileService.uploadStream(
+                new ByteArrayInputStream(new byte[0]), "../escape.txt", 0, 1L, "testUser"));
+
+        assertEquals("Invalid file name", exception.getMessage());
+    }
+
     @Test
     void testUploadJpgFile() throws IOException {
         when(mockFile.getOriginalFilename()).thenReturn("image.jpg");
         when(mockFile.getBytes()).thenReturn(new byte[100]);
         when(mockFile.getSize()).thenReturn(100L);
-        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
 
         FileMetadata savedMetadata = new FileMetadata();
         savedMetadata.setFileId(2L);
@@ -140,6 +257,23 @@ class FileServiceTest {
         verify(fileRepository, times(1)).deleteById(1L);
     }
 
+    @Test
+    void testDeleteFileKeepsUserFileNamedLikeIndex() throws IOException {
+        Path testFile = Files.write(tempDir.resolve("1_notes.txt"), "notes".getBytes());
+        Path userIndexLike = Files.write(tempDir.resolve("1_notes.txt.lidx"), "mine".getBytes());
+
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(1L);
+        metadata.setFilePath(testFile.toString());
+        when(fileRepository.findById(1L)).thenReturn(Optional.of(metadata));
+
+        fileService.deleteFile(1L);
+
+        assertFalse(Files.exists(testFile));
+        assertEquals("mine", Files.readString(userIndexLike));
+        verify(lineIndexService).deleteIndex(1L);
+    }
+
     @Test
     void testDeleteFileNotFound() {
         when(fileRepository.findById(1L)).thenReturn(Optional.empty());
@@ -149,6 +283,8 @@ class FileServiceTest {
         });
 
         assertEquals("File not found", exception.getMessage());
+        assertEquals(1, meterRegistry.get("files.operation")
+                .tag("operation", "delete").tag("outcome", "error").timer().count());
     }
 
     @Test
@@ -218,6 +354,7 @@ class FileServiceTest {
         assertEquals("editor", result.getEditorName());
         assertFalse(Files.exists(existingFile));
         verify(fileRepository, times(1)).save(any(FileMetadata.class));
+        verify(quotaService).reserve(1L, 11L);
     }
 
     @Test
@@ -261,4 +398,182 @@ class FileServiceTest {
         assertEquals("image.jpg", result.getName());
         assertEquals("jpg", result.getType());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetFilesMetadataKeepsRequestOrder() {
+        FileMetadata first = new FileMetadata();
+        first.setFileId(1L);
+        FileMetadata second = new FileMetadata();
+        second.setFileId(2L);
+
+        when(fileRepository.findAllById(any())).thenReturn(Arrays.asList(first, second));
+
+        List<FileMetadata> result = fileService.getFilesMetadata(Arrays.asList(2L, 1L, 2L));
+
+        assertEquals(2, result.size());
+        assertEquals(2L, result.get(0).getFileId());
+        assertEquals(1L, result.get(1).getFileId());
+    }
+
+    @Test
+    void testGetFilesMetadataMissingFile() {
+        when(fileRepository.findAllById(any())).thenReturn(List.of());
+
+        RuntimeException exception = assertThrows(RuntimeException.class, () -> {
+            fileService.getFilesMetadata(List.of(5L));
+        });
+
+        assertEquals("File not found: 5", exception.getMessage());
+    }
+
+    @Test
+    void testStreamContentServesMatchingVersion() throws IOException {
+        FileMetadata metadata = archiveEntry(4L, "report.txt", "signed");
+        metadata.setContentVersion(2L);
+        when(fileRepository.findById(4L)).thenReturn(Optional.of(metadata));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<FileMetadata> headers = new ArrayList<>();
+        assertTrue(fileService.streamContent(4L, 2L, headers::add, out));
+
+        assertEquals("signed", out.toString());
+        assertEquals(List.of(metadata), headers);
+    }
+
+    @Test
+    void testStreamContentRejectsReplacedContent() throws IOException {
+        FileMetadata metadata = archiveEntry(4L, "report.txt", "replaced");
+        metadata.setContentVersion(3L);
+        when(fileRepository.findById(4L)).thenReturn(Optional.of(metadata));
+        when(fileRepository.findById(5L)).thenReturn(Optional.empty());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(fileService.streamContent(4L, 2L, m -> fail("headers sent"), out));
+        assertFalse(fileService.streamContent(5L, 0L, m -> fail("headers sent"), out));
+        assertEquals(0, out.size());
+    }
+
+    @Test
+    void testStreamContentHoldsReadLockUntilWritten() throws Exception {
+        ReflectionTestUtils.setField(fileLockTable, "meterRegistry", meterRegistry);
+        FileMetadata metadata = archiveEntry(4L, "report.txt", "locked");
+        when(fileRepository.findById(4L)).thenReturn(Optional.of(metadata));
+        CountDownLatch streaming = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        OutputStream slowClient = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                streaming.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        Thread download = new Thread(() -> {
+            try {
+                fileService.streamContent(4L, 0L, m -> { }, slowClient);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        download.start();
+        assertTrue(streaming.await(5, TimeUnit.SECONDS));
+
+        AtomicBoolean written = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try {
+                fileLockTable.withWriteLock(4L, () -> {
+                    written.set(true);
+                    return null;
+                });
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        writer.join(200);
+        assertFalse(written.get(), "writer ran while the body was being streamed");
+
+        release.countDown();
+        download.join(5_000);
+        writer.join(5_000);
+        assertTrue(written.get());
+    }
+
+    @Test
+    void testWriteArchive() throws IOException {
+        Path textFile = tempDir.resolve("1_notes.kt");
+        Files.write(textFile, "fun main() {}".getBytes());
+        Path secondFile = tempDir.resolve("2_notes.kt");
+        Files.write(secondFile, new byte[]{1, 2, 3});
+
+        FileMetadata text = new FileMetadata();
+        text.setFileId(1L);
+        text.setName("notes.kt");
+        text.setType("kt");
+        text.setFilePath(textFile.toString());
+
+        FileMetadata sameName = new FileMetadata();
+        sameName.setFileId(2L);
+        sameName.setName("notes.kt");
+        sameName.setType("kt");
+        sameName.setFilePath(secondFile.toString());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileService.writeArchive(Arrays.asList(text, sameName), out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            ZipEntry entry = zip.getNextEntry();
+            assertEquals("notes.kt", entry.getName());
+            assertEquals("fun main() {}", new String(zip.readAllBytes()));
+
+            entry = zip.getNextEntry();
+            assertEquals("2_notes.kt", entry.getName());
+            assertArrayEquals(new byte[]{1, 2, 3}, zip.readAllBytes());
+
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    @Test
+    void testWriteArchiveFallbackNameCollidesWithRealFile() throws IOException {
+        FileMetadata first = archiveEntry(1L, "notes.kt", "first");
+        FileMetadata realPrefixed = archiveEntry(3L, "2_notes.kt", "real");
+        FileMetadata duplicate = archiveEntry(2L, "notes.kt", "duplicate");
+        FileMetadata secondDuplicate = archiveEntry(2L, "2_notes.kt", "again");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileService.writeArchive(Arrays.asList(first, realPrefixed, duplicate, secondDuplicate), out);
+
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+            assertEquals("notes.kt", zip.getNextEntry().getName());
+            assertEquals("first", new String(zip.readAllBytes()));
+            assertEquals("2_notes.kt", zip.getNextEntry().getName());
+            assertEquals("real", new String(zip.readAllBytes()));
+            assertEquals("2_2_notes.kt", zip.getNextEntry().getName());
+            assertEquals("duplicate", new String(zip.readAllBytes()));
+            assertEquals("2_2_2_notes.kt", zip.getNextEntry().getName());
+            assertEquals("again", new String(zip.readAllBytes()));
+            assertNull(zip.getNextEntry());
+        }
+    }
+
+    private FileMetadata archiveEntry(Long fileId, String name, String content) throws IOException {
+        Path path = tempDir.resolve(fileId + "_" + name + "_" + content);
+        Files.write(path, content.getBytes());
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(fileId);
+        metadata.setName(name);
+        metadata.setType(FileService.getExtension(name));
+        metadata.setFilePath(path.toString());
+        return metadata;
+    }
+}
@@ -0,0 +1,137 @@
+package org.elsveys.service;
+
+import org.elsveys.model.FileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LineIndexServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private LineIndexService lineIndexService;
+
+    @BeforeEach
+    void setUp() {
+        lineIndexService = new LineIndexService();
+        ReflectionTestUtils.setField(lineIndexService, "fileLockTable", new FileLockTable());
+        ReflectionTestUtils.setField(lineIndexService, "indexDir", tempDir.resolve(".lineindex").toString());
+        ReflectionTestUtils.setField(lineIndexService, "interval", 100);
+        ReflectionTestUtils.setField(lineIndexService, "maxPageLines", 1000);
+    }
+
+    @Test
+    void testFirstPageDoesNotBuildIndex() throws Exception {
+        Path file = lines("log.txt", 1000);
+
+        LineIndexService.Page page = lineIndexService.readLines(metadata(file), 0, 3);
+
+        assertEquals(List.of("line 0", "line 1", "line 2"), page.getLines());
+        assertEquals(3, page.getNextLine());
+        assertFalse(page.isEndOfFile());
+        assertNull(page.getTotalLines());
+        assertFalse(Files.exists(lineIndexService.indexPathFor(1L)));
+    }
+
+    @Test
+    void testDeepPageUsesStoredIndex() throws Exception {
+        Path file = lines("log.txt", 1000);
+
+        LineIndexService.Page page = lineIndexService.readLines(metadata(file), 745, 5);
+
+        assertEquals(List.of("line 745", "line 746", "line 747", "line 748", "line 749"), page.getLines());
+        assertEquals(1000L, page.getTotalLines());
+        assertTrue(Files.exists(tempDir.resolve(".lineindex").resolve("1.lidx")));
+
+        LineIndexService.LineIndex stored = LineIndexService.load(lineIndexService.indexPathFor(1L));
+        assertEquals(10, stored.offsets.length);
+        assertEquals(1000, stored.totalLines);
+    }
+
+    @Test
+    void testLastPageReportsEndOfFile() throws Exception {
+        Path file = Files.write(tempDir.resolve("short.txt"), "a\r\nb\nc".getBytes(StandardCharsets.UTF_8));
+
+        LineIndexService.Page page = lineIndexService.readLines(metadata(file), 1, 10);
+
+        assertEquals(List.of("b", "c"), page.getLines());
+        assertTrue(page.isEndOfFile());
+        assertEquals(3, LineIndexService.build(file, 100).totalLines);
+    }
+
+    @Test
+    void testChangedFileRebuildsIndex() throws Exception {
+        Path file = lines("log.txt", 300);
+        lineIndexService.readLines(metadata(file), 250, 1);
+
+        Files.write(file, "replaced\n".repeat(500).getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10_000));
+
+        LineIndexService.Page page = lineIndexService.readLines(metadata(file), 450, 1);
+        assertEquals(List.of("replaced"), page.getLines());
+        assertEquals(500L, page.getTotalLines());
+    }
+
+    @Test
+    void testIndexDoesNotTouchUserFileWithIndexName() throws Exception {
+        Path file = lines("1_notes.txt", 1000);
+        Path userFile = Files.write(tempDir.resolve("1_notes.txt.lidx"), "mine".getBytes(StandardCharsets.UTF_8));
+
+        lineIndexService.readLines(metadata(file), 500, 1);
+        assertEquals("mine", Files.readString(userFile));
+
+        lineIndexService.deleteIndex(1L);
+        assertEquals("mine", Files.readString(userFile));
+        assertFalse(Files.exists(lineIndexService.indexPathFor(1L)));
+    }
+
+    @Test
+    void testUploadedIndexNamedTextFileIsText() {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setName("notes.txt.lidx");
+        metadata.setType("lidx");
+        metadata.setMimeType("text/plain");
+
+        assertTrue(LineIndexService.isText(metadata));
+    }
+
+    @Test
+    void testBinaryFileIsRejected() {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setType("png");
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> lineIndexService.readLines(metadata, 0, 10));
+        assertTrue(e.getMessage().contains("not available"));
+    }
+
+    private Path lines(String name, int count) throws Exception {
+        Path file = tempDir.resolve(name);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (int i = 0; i < count; i++) {
+                writer.write("line " + i);
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    private FileMetadata metadata(Path path) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(1L);
+        metadata.setName(path.getFileName().toString());
+        metadata.setType("txt");
+        metadata.setFilePath(path.toString());
+        return metadata;
+    }
+}
@@ -0,0 +1,214 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.persistence.EntityManagerFactory;
+import org.elsveys.config.MetadataCacheConfig;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.model.User;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.repository.UserRepository;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the real repositories against H2 with the second-level and query caches on, and checks that
+ * every write path leaves the cached metadata and listings consistent with the database.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:metadata-cache;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "jwt.secret=cache-test-secret-cache-test-secret-cache-test-secret-cache-test-0123",
+        "jwt.expiration=3600000"
+})
+class MetadataCacheIntegrationTest {
+
+    @TempDir
+    static Path uploadDir;
+
+    @DynamicPropertySource
+    static void storage(DynamicPropertyRegistry registry) {
+        registry.add("file.upload.dir", () -> uploadDir.toString());
+    }
+
+    // Post-upload processing would update the rows concurrently with the assertions.
+    @MockitoBean
+    private FileProcessingService fileProcessingService;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private SortFilterService sortFilterService;
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private FileMetadataRepository fileRepository;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Statistics statistics;
+    private Long userId;
+
+    @BeforeEach
+    void setUp() {
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        User user = new User();
+        user.setUsername("cache-" + UUID.randomUUID().toString().substring(0, 8));
+        user.setPassword("hash");
+        userId = userRepository.save(user).getUserId();
+    }
+
+    @Test
+    void testMetadataReadsAreServedFromCache() throws Exception {
+        FileMetadata stored = upload("cached.kt", "fun main() {}");
+        // Rows inserted with an identity key are cached on their first read, not on insert.
+        fileService.getFileMetadata(stored.getFileId());
+
+        statistics.clear();
+        FileMetadata loaded = fileService.getFileMetadata(stored.getFileId());
+
+        assertEquals("cached.kt", loaded.getName());
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getDomainDataRegionStatistics(MetadataCacheConfig.FILE_METADATA_REGION).getHitCount());
+    }
+
+    @Test
+    void testListingIsServedFromQueryCacheUntilWrite() throws Exception {
+        upload("first.kt", "1");
+        sortFilterService.sortByModifiedDate(false);
+
+        statistics.clear();
+        List<FileMetadata> cached = sortFilterService.sortByModifiedDate(false);
+        assertEquals(0, statistics.getPrepareStatementCount());
+        assertEquals(1, statistics.getQueryCacheHitCount());
+
+        FileMetadata second = upload("second.kt", "2");
+        List<FileMetadata> refreshed = sortFilterService.sortByModifiedDate(false);
+
+        assertEquals(cached.size() + 1, refreshed.size());
+        assertTrue(refreshed.stream().anyMatch(f -> f.getFileId().equals(second.getFileId())));
+    }
+
+    @Test
+    void testUpdateRefreshesCachedEntityAndListing() throws Exception {
+        FileMetadata stored = upload("draft.kt", "old");
+        fileService.getFileMetadata(stored.getFileId());
+        sortFilterService.sortByModifiedDate(true);
+
+        fileService.updateFile(stored.getFileId(),
+                new MockMultipartFile("file", "final.kt", "text/plain", "new content".getBytes()), userId, "user");
+
+        FileMetadata loaded = fileService.getFileMetadata(stored.getFileId());
+        assertEquals("final.kt", loaded.getName());
+        assertEquals(11L, loaded.getSize());
+        FileMetadata listed = find(sortFilterService.sortByModifiedDate(true), stored.getFileId());
+        assertEquals("final.kt", listed.getName());
+    }
+
+    @Test
+    void testProcessingUpdateKeepsOtherEntriesCached() throws Exception {
+        FileMetadata processed = upload("hashed.kt", "content");
+        FileMetadata other = upload("other.kt", "other");
+        fileService.getFileMetadata(other.getFileId());
+
+        assertEquals(1, fileRepository.updateContentHash(processed.getFileId(), processed.getContentVersion(), "abc123"));
+        assertEquals(0, fileRepository.updateMimeType(processed.getFileId(), processed.getContentVersion() + 1, "text/plain"));
+
+        assertEquals("abc123", fileService.getFileMetadata(processed.getFileId()).getContentHash());
+        assertNull(fileService.getFileMetadata(processed.getFileId()).getMimeType());
+        statistics.clear();
+        fileService.getFileMetadata(other.getFileId());
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void testProcessingResultForReplacedContentIsRejected() throws Exception {
+        FileMetadata stored = upload("same.kt", "old content");
+        Long oldVersion = stored.getContentVersion();
+
+        fileService.updateFile(stored.getFileId(),
+                new MockMultipartFile("file", "same.kt", "text/plain", "new content".getBytes()), userId, "user");
+
+        FileMetadata updated = fileService.getFileMetadata(stored.getFileId());
+        assertEquals(stored.getFilePath(), updated.getFilePath());
+        assertEquals(oldVersion + 1, updated.getContentVersion());
+        assertEquals(0, fileRepository.updateContentHash(stored.getFileId(), oldVersion, "stale"));
+        assertEquals(0, fileRepository.updateMimeType(stored.getFileId(), oldVersion, "stale/type"));
+        assertNull(fileService.getFileMetadata(stored.getFileId()).getContentHash());
+        assertNull(fileService.getFileMetadata(stored.getFileId()).getMimeType());
+    }
+
+    @Test
+    void testDeleteEvictsEntityAndListing() throws Exception {
+        FileMetadata stored = upload("doomed.kt", "bye");
+        fileService.getFileMetadata(stored.getFileId());
+        sortFilterService.sortByModifiedDate(false);
+
+        fileService.deleteFile(stored.getFileId());
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> fileService.getFileMetadata(stored.getFileId()));
+        assertEquals("File not found", e.getMessage());
+        assertTrue(sortFilterService.sortByModifiedDate(false).stream()
+                .noneMatch(f -> f.getFileId().equals(stored.getFileId())));
+    }
+
+    @Test
+    void testQuotaFlushRefreshesCachedUser() throws Exception {
+        userRepository.findById(userId);
+        upload("counted.kt", "12345");
+
+        quotaService.flush();
+
+        assertEquals(5L, userRepository.findById(userId).orElseThrow().getUsedBytes());
+    }
+
+    @Test
+    void testRegionSizesAndStatisticsAreExported() throws Exception {
+        FileMetadata stored = upload("metered.kt", "m");
+        fileService.getFileMetadata(stored.getFileId());
+
+        assertTrue(meterRegistry.get("hibernate.cache.region.size")
+                .tag("region", MetadataCacheConfig.FILE_METADATA_REGION).gauge().value() >= 1);
+        assertEquals(10_000, meterRegistry.get("hibernate.cache.region.max.size")
+                .tag("region", MetadataCacheConfig.FILE_METADATA_REGION).gauge().value());
+        assertNotNull(meterRegistry.find("hibernate.second.level.cache.requests")
+                .tag("region", MetadataCacheConfig.FILE_METADATA_REGION).functionCounter());
+    }
+
+    private FileMetadata upload(String name, String content) throws Exception {
+        byte[] data = content.getBytes(StandardCharsets.UTF_8);
+        return fileService.uploadStream(new ByteArrayInputStream(data), name, data.length, userId, "user");
+    }
+
+    private static FileMetadata find(List<FileMetadata> files, Long fileId) {
+        return files.stream().filter(f -> f.getFileId().equals(fileId)).findFirst().orElseThrow();
+    }
+}
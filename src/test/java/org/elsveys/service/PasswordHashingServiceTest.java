@@ -0,0 +1,87 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHashingServiceTest {
+
+    private PasswordHashingService passwordHashingService;
+    private ThreadPoolExecutor executor;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1));
+        meterRegistry = new SimpleMeterRegistry();
+        passwordHashingService = create(new BCryptPasswordEncoder(4), 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private PasswordHashingService create(PasswordEncoder encoder, int strength) {
+        PasswordHashingService service = new PasswordHashingService();
+        ReflectionTestUtils.setField(service, "passwordEncoder", encoder);
+        ReflectionTestUtils.setField(service, "executor", executor);
+        ReflectionTestUtils.setField(service, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(service, "strength", strength);
+        ReflectionTestUtils.setField(service, "timeoutMillis", 5_000L);
+        ReflectionTestUtils.setField(service, "retryAfterSeconds", 2L);
+        return service;
+    }
+
+    @Test
+    void testEncodeAndMatchOnHashingPool() {
+        String encoded = passwordHashingService.encode("secret");
+
+        assertTrue(passwordHashingService.matches("secret", encoded));
+        assertFalse(passwordHashingService.matches("wrong", encoded));
+        assertEquals(1, meterRegistry.get("auth.password.hash").tag("operation", "encode").timer().count());
+        assertEquals(2, meterRegistry.get("auth.password.hash.wait").tag("operation", "matches").timer().count());
+    }
+
+    @Test
+    void testNeedsRehashWhenCostChanges() {
+        String encoded = passwordHashingService.encode("secret");
+        PasswordHashingService stronger = create(new BCryptPasswordEncoder(5), 5);
+
+        assertFalse(passwordHashingService.needsRehash(encoded));
+        assertTrue(stronger.needsRehash(encoded));
+        assertTrue(stronger.needsRehash("{noop}plain"));
+    }
+
+    @Test
+    void testRejectsWhenSaturated() {
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(blocker);
+        executor.execute(blocker);
+
+        ServiceOverloadedException exception = assertThrows(ServiceOverloadedException.class,
+                () -> passwordHashingService.encode("rejected"));
+
+        assertEquals(2L, exception.getRetryAfterSeconds());
+        assertEquals(1.0, meterRegistry.get("auth.password.hash.rejected").counter().count());
+        release.countDown();
+    }
+}
@@ -0,0 +1,166 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PreviewServiceTest {
+
+    @TempDir
+    Path tempDir;
+
+    private PreviewService previewService;
+    private SimpleMeterRegistry meterRegistry;
+    private final Map<Long, FileMetadata> stored = new HashMap<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        FileMetadataRepository fileRepository = mock(FileMetadataRepository.class);
+        when(fileRepository.findById(any())).thenAnswer(inv -> Optional.ofNullable(stored.get(inv.<Long>getArgument(0))));
+        previewService = new PreviewService();
+        ReflectionTestUtils.setField(previewService, "fileLockTable", new FileLockTable());
+        ReflectionTestUtils.setField(previewService, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(previewService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(previewService, "cacheDir", tempDir.resolve("previews").toString());
+        ReflectionTestUtils.setField(previewService, "maxCacheBytes", 10L * 1024 * 1024);
+        previewService.init();
+    }
+
+    @Test
+    void testPreviewIsDownscaledAndCached() throws Exception {
+        FileMetadata metadata = image(1L, "photo.jpg", "jpg", 2000, 1000);
+
+        PreviewService.Preview first = previewService.getPreview(metadata, 200, 200);
+        BufferedImage rendered;
+        try (InputStream in = first.getStream()) {
+            rendered = ImageIO.read(in);
+        }
+        assertEquals(256, rendered.getWidth());
+        assertEquals(128, rendered.getHeight());
+        assertEquals("image/jpeg", first.getMediaType());
+        assertTrue(first.getSize() < 20 * 1024);
+
+        PreviewService.Preview second = previewService.getPreview(metadata, 256, 100);
+        second.getStream().close();
+        assertEquals(first.getPath(), second.getPath());
+        assertEquals(1, meterRegistry.get("preview.cache").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testNewContentVersionGetsNewRendition() throws Exception {
+        FileMetadata metadata = image(2L, "logo.png", "png", 300, 300);
+        PreviewService.Preview before = previewService.getPreview(metadata, 64, 64);
+        before.getStream().close();
+
+        metadata.contentReplaced();
+        PreviewService.Preview after = previewService.getPreview(metadata, 64, 64);
+        after.getStream().close();
+
+        assertNotEquals(before.getPath(), after.getPath());
+        assertEquals("image/png", after.getMediaType());
+    }
+
+    @Test
+    void testContentHashDoesNotChangeRendition() throws Exception {
+        FileMetadata metadata = image(4L, "hashed.png", "png", 300, 300);
+        PreviewService.Preview before = previewService.getPreview(metadata, 64, 64);
+        before.getStream().close();
+
+        metadata.setContentHash("abc123");
+        PreviewService.Preview after = previewService.getPreview(metadata, 64, 64);
+        after.getStream().close();
+
+        assertEquals(before.getPath(), after.getPath());
+        assertEquals(1, meterRegistry.get("preview.cache").tag("result", "hit").counter().count());
+    }
+
+    @Test
+    void testEvictedPreviewCanStillBeSent() throws Exception {
+        assumeTrue(!System.getProperty("os.name").toLowerCase().startsWith("windows"));
+        FileMetadata metadata = image(5L, "sent.png", "png", 300, 300);
+        PreviewService.Preview preview = previewService.getPreview(metadata, 64, 64);
+
+        ReflectionTestUtils.setField(previewService, "maxCacheBytes", 1L);
+        previewService.evict();
+
+        assertFalse(Files.exists(preview.getPath()));
+        try (InputStream in = preview.getStream()) {
+            assertEquals(preview.getSize(), in.readAllBytes().length);
+        }
+    }
+
+    @Test
+    void testContentReplacedBeforeRenderIsNotCachedUnderOldVersion() throws Exception {
+        FileMetadata metadata = image(6L, "moved.png", "png", 300, 300);
+        FileMetadata replaced = image(6L, "moved.png", "png", 300, 300);
+        replaced.contentReplaced();
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> previewService.getPreview(metadata, 64, 64));
+
+        assertEquals("File was changed during preview", e.getMessage());
+        assertEquals(0, previewService.cacheBytes());
+    }
+
+    @Test
+    void testEvictionKeepsCacheUnderLimit() throws Exception {
+        ReflectionTestUtils.setField(previewService, "maxCacheBytes", 1L);
+        FileMetadata metadata = image(3L, "big.png", "png", 400, 400);
+
+        previewService.getPreview(metadata, 512, 512).getStream().close();
+
+        assertEquals(0, previewService.cacheBytes());
+    }
+
+    @Test
+    void testUnsupportedTypeIsRejected() {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setType("txt");
+
+        assertThrows(RuntimeException.class, () -> previewService.getPreview(metadata, 64, 64));
+    }
+
+    private FileMetadata image(Long fileId, String name, String type, int width, int height) throws Exception {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.ORANGE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.BLUE);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        Path path = tempDir.resolve(name);
+        ImageIO.write(image, "jpg".equals(type) ? "jpeg" : type, path.toFile());
+
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(fileId);
+        metadata.setName(name);
+        metadata.setType(type);
+        metadata.setSize(Files.size(path));
+        metadata.setFilePath(path.toString());
+        metadata.setModifiedDate(LocalDateTime.of(2024, 1, 1, 12, 0));
+        stored.put(fileId, metadata);
+        return metadata;
+    }
+}
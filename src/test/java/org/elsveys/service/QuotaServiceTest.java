@@ -0,0 +1,121 @@
+package org.elsveys.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.repository.FileMetadataRepository;
+import org.elsveys.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class QuotaServiceTest {
+
+    @Mock
+    private FileMetadataRepository fileRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    private QuotaService quotaService;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        quotaService = new QuotaService();
+        ReflectionTestUtils.setField(quotaService, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(quotaService, "userRepository", userRepository);
+        ReflectionTestUtils.setField(quotaService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(quotaService, "defaultLimit", 1000L);
+    }
+
+    @Test
+    void testReserveAndRelease() {
+        quotaService.reserve(1L, 600L);
+        RuntimeException e = assertThrows(RuntimeException.class, () -> quotaService.reserve(1L, 401L));
+        assertEquals("Storage quota exceeded", e.getMessage());
+
+        quotaService.release(1L, 200L);
+        quotaService.reserve(1L, 600L);
+
+        assertEquals(1000L, quotaService.getUsed(1L));
+        assertEquals(1.0, meterRegistry.get("files.quota.rejected").counter().count());
+        assertThrows(RuntimeException.class, () -> quotaService.checkAvailable(1L));
+    }
+
+    @Test
+    void testConcurrentReservationsNeverExceedLimit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> {
+                    try {
+                        quotaService.reserve(1L, 30L);
+                        return true;
+                    } catch (RuntimeException e) {
+                        return false;
+                    }
+                }));
+            }
+            int accepted = 0;
+            for (Future<Boolean> result : results) {
+                if (result.get(5, TimeUnit.SECONDS)) {
+                    accepted++;
+                }
+            }
+            assertEquals(33, accepted);
+            assertEquals(990L, quotaService.getUsed(1L));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testRebuildFromAggregatesAndFlush() {
+        when(fileRepository.sumSizeByUploader()).thenReturn(List.<Object[]>of(new Object[]{1L, 700L}, new Object[]{2L, 50L}));
+        when(userRepository.findQuotaOverrides()).thenReturn(List.<Object[]>of(new Object[]{2L, 60L}));
+
+        quotaService.start();
+
+        assertEquals(700L, quotaService.getUsed(1L));
+        assertEquals(60L, quotaService.getLimit(2L));
+        assertThrows(RuntimeException.class, () -> quotaService.reserve(2L, 11L));
+
+        quotaService.flush();
+        verify(userRepository).updateUsedBytes(1L, 700L);
+        verify(userRepository).updateUsedBytes(2L, 50L);
+
+        quotaService.stop();
+        assertFalse(quotaService.isRunning());
+        verify(userRepository, times(2)).updateUsedBytes(anyLong(), anyLong());
+    }
+
+    @Test
+    void testRefreshLimitsAppliesChangedOverrides() {
+        when(userRepository.findQuotaOverrides())
+                .thenReturn(List.<Object[]>of(new Object[]{2L, 60L}))
+                .thenReturn(List.<Object[]>of(new Object[]{3L, 2000L}));
+
+        quotaService.refreshLimits();
+        assertEquals(60L, quotaService.getLimit(2L));
+
+        quotaService.refreshLimits();
+        assertEquals(1000L, quotaService.getLimit(2L));
+        assertEquals(2000L, quotaService.getLimit(3L));
+        quotaService.reserve(3L, 1500L);
+    }
+}
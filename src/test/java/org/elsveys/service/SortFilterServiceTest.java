@@ -1,5 +1,6 @@
 package org.elsveys.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.elsveys.model.FileMetadata;
 import org.elsveys.repository.FileMetadataRepository;
 import org.junit.jupiter.api.BeforeEach;
@@ -7,6 +8,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.LocalDateTime;
@@ -22,6 +24,9 @@ class SortFilterServiceTest {
     @Mock
     private FileMetadataRepository fileRepository;
 
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @InjectMocks
     private SortFilterService sortFilterService;
 
@@ -0,0 +1,320 @@
+package org.elsveys.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elsveys.model.FileMetadata;
+import org.elsveys.repository.FileMetadataRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SyncApplyServiceTest {
+
+    @Mock
+    private FileMetadataRepository fileRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private FileProcessingService fileProcessingService;
+
+    @Mock
+    private LineIndexService lineIndexService;
+
+    private SyncApplyService syncApplyService;
+    private QuotaService quotaService;
+    private FileLockTable fileLockTable;
+    private ExecutorService executor;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+        syncApplyService = new SyncApplyService();
+        ReflectionTestUtils.setField(syncApplyService, "fileRepository", fileRepository);
+        ReflectionTestUtils.setField(syncApplyService, "transactionTemplate", new TransactionTemplate(transactionManager));
+        ReflectionTestUtils.setField(syncApplyService, "objectMapper", objectMapper);
+        ReflectionTestUtils.setField(syncApplyService, "executor", executor);
+        fileLockTable = new FileLockTable();
+        ReflectionTestUtils.setField(fileLockTable, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(syncApplyService, "fileLockTable", fileLockTable);
+        ReflectionTestUtils.setField(syncApplyService, "fileProcessingService", fileProcessingService);
+        ReflectionTestUtils.setField(syncApplyService, "lineIndexService", lineIndexService);
+        quotaService = new QuotaService();
+        ReflectionTestUtils.setField(quotaService, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(quotaService, "defaultLimit", 1024L * 1024);
+        ReflectionTestUtils.setField(syncApplyService, "quotaService", quotaService);
+        ReflectionTestUtils.setField(syncApplyService, "uploadDir", tempDir.toString());
+        ReflectionTestUtils.setField(syncApplyService, "batchSize", 8);
+        ReflectionTestUtils.setField(syncApplyService, "queueCapacity", 4);
+        ReflectionTestUtils.setField(syncApplyService, "bufferCount", 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testApplyUploadsUpdatesAndDeletes() throws Exception {
+        Path oldFile = tempDir.resolve("1_old.kt");
+        Files.write(oldFile, "old".getBytes());
+        Path deletedFile = tempDir.resolve("1_gone.kt");
+        Files.write(deletedFile, "gone".getBytes());
+
+        FileMetadata existing = metadata(10L, "old.kt", oldFile);
+        FileMetadata toDelete = metadata(11L, "gone.kt", deletedFile);
+
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of(existing, toDelete));
+        when(fileRepository.findAllById(anyList())).thenReturn(List.of(existing, toDelete));
+        when(fileRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            List<FileMetadata> saved = new ArrayList<>(invocation.getArgument(0));
+            long nextId = 20L;
+            for (FileMetadata metadata : saved) {
+                if (metadata.getFileId() == null) {
+                    metadata.setFileId(nextId++);
+                }
+            }
+            return saved;
+        });
+
+        byte[] largeContent = new byte[200 * 1024];
+        for (int i = 0; i < largeContent.length; i++) {
+            largeContent[i] = (byte) i;
+        }
+
+        OperationStream ops = new OperationStream();
+        ops.upload("big.bin", largeContent);
+        ops.update(10L, "new.kt", "new".getBytes());
+        ops.delete(11L);
+        ops.upload("empty.kt", new byte[0]);
+
+        List<Map<String, Object>> results = apply(ops.finish());
+
+        assertEquals(4, results.size());
+        assertTrue(results.stream().allMatch(r -> "ok".equals(r.get("status"))));
+        assertArrayEquals(largeContent, Files.readAllBytes(tempDir.resolve("1_big.bin")));
+        assertEquals("new", Files.readString(tempDir.resolve("1_new.kt")));
+        assertTrue(Files.exists(tempDir.resolve("1_empty.kt")));
+        assertFalse(Files.exists(oldFile));
+        assertFalse(Files.exists(deletedFile));
+        assertEquals("new.kt", existing.getName());
+        verify(fileRepository).deleteAllInBatch(List.of(toDelete));
+        assertEquals(largeContent.length + 3, quotaService.getUsed(1L));
+    }
+
+    @Test
+    void testApplyReportsDuplicateAndMissingFiles() throws Exception {
+        FileMetadata existing = metadata(10L, "taken.kt", tempDir.resolve("1_taken.kt"));
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of(existing));
+        when(fileRepository.findAllById(anyList())).thenReturn(List.of());
+        lenient().when(fileRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        OperationStream ops = new OperationStream();
+        ops.upload("taken.kt", "duplicate".getBytes());
+        ops.delete(99L);
+
+        List<Map<String, Object>> results = apply(ops.finish());
+
+        assertEquals(2, results.size());
+        assertEquals("File with this name already exists", results.get(0).get("message"));
+        assertEquals("File not found", results.get(1).get("message"));
+        verify(fileRepository, never()).deleteAllInBatch(anyList());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    void testApplyRejectsUploadOverQuota() throws Exception {
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
+        when(fileRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+        ReflectionTestUtils.setField(quotaService, "defaultLimit", 100L);
+
+        OperationStream ops = new OperationStream();
+        ops.upload("large.bin", new byte[200]);
+        ops.upload("small.kt", "fits".getBytes());
+
+        List<Map<String, Object>> results = apply(ops.finish());
+
+        assertEquals("Storage quota exceeded", results.get(0).get("message"));
+        assertEquals("ok", results.get(1).get("status"));
+        assertFalse(Files.exists(tempDir.resolve("1_large.bin")));
+        assertEquals(4, quotaService.getUsed(1L));
+    }
+
+    @Test
+    void testApplyTruncatedStream() throws Exception {
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
+
+        OperationStream ops = new OperationStream();
+        ops.upload("cut.kt", "0123456789".getBytes());
+        byte[] data = ops.finish();
+        byte[] truncated = Arrays.copyOf(data, data.length - 6);
+
+        List<Map<String, Object>> results = apply(truncated);
+
+        assertEquals(2, results.size());
+        assertEquals("Incomplete file data", results.get(0).get("message"));
+        assertEquals("error", results.get(1).get("status"));
+        verify(fileRepository, never()).saveAll(any());
+        try (var files = Files.list(tempDir)) {
+            assertEquals(0, files.count());
+        }
+        assertEquals(0, quotaService.getUsed(1L));
+    }
+
+    @Test
+    void testApplyRejectsNegativeSize() throws Exception {
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of());
+        when(fileRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+        OperationStream ops = new OperationStream();
+        ops.upload("first.kt", "first".getBytes());
+        ops.uploadHeader("broken.kt", -5);
+        ops.upload("never.kt", "never".getBytes());
+
+        List<Map<String, Object>> results = apply(ops.finish());
+
+        assertEquals(3, results.size());
+        assertEquals("ok", results.get(0).get("status"));
+        assertEquals("broken.kt", results.get(1).get("name"));
+        assertEquals("Invalid file size: -5", results.get(1).get("message"));
+        assertEquals("error", results.get(2).get("status"));
+        assertFalse(Files.exists(tempDir.resolve("1_never.kt")));
+        try (var files = Files.list(tempDir)) {
+            assertEquals(List.of(tempDir.resolve("1_first.kt")), files.toList());
+        }
+        assertEquals(5, quotaService.getUsed(1L));
+    }
+
+    @Test
+    void testReadersWaitUntilUpdatedFileIsInPlace() throws Exception {
+        Path oldFile = Files.write(tempDir.resolve("1_old.kt"), "old".getBytes());
+        FileMetadata existing = metadata(10L, "old.kt", oldFile);
+        when(fileRepository.findByUploaderId(1L)).thenReturn(List.of(existing));
+        when(fileRepository.findAllById(anyList())).thenReturn(List.of(existing));
+        List<Future<String>> readers = new ArrayList<>();
+        when(fileRepository.saveAll(anyList())).thenAnswer(invocation -> {
+            // A download that starts once the new metadata is visible must find the new file.
+            readers.add(executor.submit(() -> fileLockTable.withReadLock(10L,
+                    () -> Files.readString(Paths.get(existing.getFilePath())))));
+            return invocation.getArgument(0);
+        });
+
+        OperationStream ops = new OperationStream();
+        ops.update(10L, "new.kt", "new".getBytes());
+        List<Map<String, Object>> results = apply(ops.finish());
+
+        assertEquals("ok", results.get(0).get("status"));
+        assertEquals("new", readers.get(0).get(5, TimeUnit.SECONDS));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> apply(byte[] request) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        syncApplyService.apply(new ByteArrayInputStream(request), out, 1L, "user");
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (String line : out.toString(StandardCharsets.UTF_8).split("\n")) {
+            if (!line.isEmpty()) {
+                results.add(objectMapper.readValue(line, Map.class));
+            }
+        }
+        return results;
+    }
+
+    private FileMetadata metadata(Long fileId, String name, Path path) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFileId(fileId);
+        metadata.setName(name);
+        metadata.setFilePath(path.toString());
+        metadata.setUploaderId(1L);
+        return metadata;
+    }
+
+    private static class OperationStream {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        OperationStream() {
+            out.writeBytes(new byte[]{'F', 'M', 'O', 1});
+        }
+
+        void upload(String name, byte[] data) {
+            out.write('U');
+            writeName(name);
+            writeVarLong(data.length);
+            out.writeBytes(data);
+        }
+
+        void uploadHeader(String name, long size) {
+            out.write('U');
+            writeName(name);
+            writeVarLong(size);
+        }
+
+        void update(long fileId, String name, byte[] data) {
+            out.write('P');
+            writeVarLong(fileId);
+            writeName(name);
+            writeVarLong(data.length);
+            out.writeBytes(data);
+        }
+
+        void delete(long fileId) {
+            out.write('D');
+            writeVarLong(fileId);
+        }
+
+        byte[] finish() {
+            out.write(0);
+            return out.toByteArray();
+        }
+
+        private void writeName(String name) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            out.writeBytes(bytes);
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                out.write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
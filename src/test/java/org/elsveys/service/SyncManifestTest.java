@@ -0,0 +1,77 @@
+package org.elsveys.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyncManifestTest {
+
+    private List<String> readList(SyncManifest.Reader reader) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (String name = reader.next(); name != null; name = reader.next()) {
+            names.add(name);
+        }
+        return names;
+    }
+
+    @Test
+    void testRoundTripMultipleLists() throws IOException {
+        List<String> first = Arrays.asList("photos/2024/img_001.jpg", "photos/2024/img_002.jpg", "notes.kt", "заметки.kt");
+        List<String> second = Arrays.asList("photos/2024/img_003.jpg");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SyncManifest.Writer writer = new SyncManifest.Writer(out);
+        writer.writeList(first);
+        writer.writeList(second);
+        writer.writeList(List.of());
+
+        SyncManifest.Reader reader = new SyncManifest.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(first, readList(reader));
+        assertEquals(second, readList(reader));
+        assertEquals(List.of(), readList(reader));
+    }
+
+    @Test
+    void testSharedPrefixesAreNotRepeated() throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add(String.format("projects/filemanager/src/main/resources/file_%05d.kt", i));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SyncManifest.Writer(out).writeList(names);
+
+        int rawSize = names.stream().mapToInt(n -> n.getBytes(StandardCharsets.UTF_8).length).sum();
+        assertTrue(out.size() * 5 < rawSize);
+        assertEquals(names, readList(new SyncManifest.Reader(new ByteArrayInputStream(out.toByteArray()))));
+    }
+
+    @Test
+    void testRejectsInvalidHeader() {
+        byte[] data = "{\"localFiles\":[]}".getBytes(StandardCharsets.UTF_8);
+
+        IOException exception = assertThrows(IOException.class, () -> {
+            new SyncManifest.Reader(new ByteArrayInputStream(data));
+        });
+
+        assertEquals("Not a sync manifest", exception.getMessage());
+    }
+
+    @Test
+    void testRejectsTruncatedManifest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SyncManifest.Writer(out).writeName("unterminated.kt");
+
+        SyncManifest.Reader reader = new SyncManifest.Reader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("unterminated.kt", reader.next());
+        assertThrows(IOException.class, reader::next);
+    }
+}
@@ -0,0 +1,187 @@
+package org.elsveys.startup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Measures how long a new instance takes to serve its first request: the time from launching the JVM to
+ * the first HTTP response from {@code /actuator/health}, whatever its status. Each mode starts the extracted
+ * application jar in a fresh JVM against an in-memory H2 database, {@code startup.runs} times, and reports
+ * the median, minimum and maximum together with the startup time Spring logs.
+ *
+ * Run through {@code mvn -Pfast-startup package -DskipTests -Dstartup.benchmark.skip=false}, which builds the
+ * AOT-processed jar and its AppCDS archive first; pass {@code -Dstartup.args="-Dstartup.runs=10"} to tune.
+ * The report is printed and written to {@code target/startup-report.txt}.
+ */
+public class StartupBenchmark {
+
+    private static final Pattern STARTED = Pattern.compile("Started \\w+ in ([0-9.]+) seconds");
+
+    private static final Map<String, List<String>> MODES = new LinkedHashMap<>();
+
+    static {
+        MODES.put("eager", List.of("-Dspring.main.lazy-initialization=false"));
+        MODES.put("lazy", List.of());
+        MODES.put("lazy+aot", List.of("-Dspring.aot.enabled=true"));
+        MODES.put("lazy+aot+cds", List.of("-Dspring.aot.enabled=true", "-XX:SharedArchiveFile=${archive}"));
+    }
+
+    private final Path appJar;
+    private final Path archive;
+    private final int runs;
+    private final Duration timeout;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    public StartupBenchmark(Path appJar, Path archive, int runs, Duration timeout) {
+        this.appJar = appJar;
+        this.archive = archive;
+        this.runs = runs;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path appJar = Paths.get(System.getProperty("startup.app", "target/app/file-manager-0.0.1-SNAPSHOT.jar"));
+        Path archive = Paths.get(System.getProperty("startup.archive",
+                appJar.resolveSibling("application.jsa").toString()));
+        if (!Files.exists(appJar)) {
+            throw new IllegalStateException(appJar + " not found; build it with mvn -Pfast-startup package");
+        }
+        List<String> modes = Arrays.asList(System.getProperty("startup.modes", String.join(",", MODES.keySet())).split(","));
+
+        StartupBenchmark benchmark = new StartupBenchmark(appJar, archive,
+                Integer.getInteger("startup.runs", 5), Duration.ofSeconds(Integer.getInteger("startup.timeout", 120)));
+
+        StringBuilder report = new StringBuilder(String.format("%-14s %14s %14s %14s %16s%n",
+                "mode", "first req p50", "min", "max", "spring start p50"));
+        for (String mode : modes) {
+            if (!MODES.containsKey(mode)) {
+                throw new IllegalArgumentException("Unknown mode " + mode + ", expected one of " + MODES.keySet());
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < benchmark.runs; i++) {
+                results.add(benchmark.launch(MODES.get(mode)));
+            }
+            results.sort(Comparator.comparingLong(Result::firstResponseMillis));
+            report.append(String.format("%-14s %11d ms %11d ms %11d ms %13d ms%n", mode,
+                    results.get(results.size() / 2).firstResponseMillis(),
+                    results.get(0).firstResponseMillis(),
+                    results.get(results.size() - 1).firstResponseMillis(),
+                    median(results.stream().mapToLong(Result::springStartMillis).toArray())));
+        }
+
+        System.out.println(report);
+        Files.createDirectories(Paths.get("target"));
+        Files.writeString(Paths.get("target", "startup-report.txt"), report.toString());
+    }
+
+    Result launch(List<String> jvmOptions) throws Exception {
+        Path workDir = Files.createTempDirectory("startup-benchmark");
+        int port = freePort();
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        for (String option : jvmOptions) {
+            command.add(option.replace("${archive}", archive.toAbsolutePath().toString()));
+        }
+        // The extracted jar lists its libraries in the manifest, so appending H2 keeps the archived class path a prefix.
+        command.add("-cp");
+        command.add(appJar.toAbsolutePath() + File.pathSeparator + h2Jar());
+        command.add("org.elsveys.FileManagerApplication");
+        command.add("--server.port=" + port);
+        command.add("--spring.datasource.url=jdbc:h2:mem:startup;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        command.add("--spring.datasource.username=sa");
+        command.add("--spring.datasource.password=");
+        command.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+        command.add("--jwt.secret=startup-benchmark-secret-startup-benchmark-secret-startup-benchmark-0123");
+        command.add("--jwt.expiration=3600000");
+        command.add("--file.upload.dir=" + workDir.resolve("uploads"));
+
+        Path log = workDir.resolve("app.log");
+        Process process = new ProcessBuilder(command)
+                .directory(workDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(log.toFile())
+                .start();
+        long startedAt = System.nanoTime();
+        try {
+            long firstResponse = awaitFirstResponse(process, port, startedAt, log);
+            return new Result(TimeUnit.NANOSECONDS.toMillis(firstResponse - startedAt), springStartMillis(log));
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+            }
+            deleteRecursively(workDir);
+        }
+    }
+
+    private long awaitFirstResponse(Process process, int port, long startedAt, Path log) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/actuator/health"))
+                .timeout(timeout)
+                .build();
+        long deadline = startedAt + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Application exited with " + process.exitValue() + ":\n" + Files.readString(log));
+            }
+            try {
+                client.send(request, HttpResponse.BodyHandlers.discarding());
+                return System.nanoTime();
+            } catch (ConnectException e) {
+                Thread.sleep(5);
+            }
+        }
+        throw new IllegalStateException("No response within " + timeout + ":\n" + Files.readString(log));
+    }
+
+    private static long springStartMillis(Path log) throws IOException {
+        Matcher matcher = STARTED.matcher(Files.readString(log));
+        return matcher.find() ? Math.round(Double.parseDouble(matcher.group(1)) * 1000) : -1;
+    }
+
+    private static String h2Jar() throws Exception {
+        return Paths.get(org.h2.Driver.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long median(long[] values) {
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    record Result(long firstResponseMillis, long springStartMillis) {
+    }
+}